@@ -0,0 +1,95 @@
+package at.emielregis.dathostdemomanager.ftp;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Throughput of {@link FtpFileHandler#zipAndClearLocalDirectory} for the configurable compression levels. Every
+ * invocation archives a fresh set of demos into an empty archive directory.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ArchiveBenchmark {
+
+    @Param({"0", "1", "6", "9"})
+    public int compressionLevel;
+
+    @Param({"20"})
+    public int demos;
+
+    @Param({"8388608"})
+    public int demoSize;
+
+    private Path root;
+    private Path localDirectory;
+    private Path archiveDirectory;
+    private FtpFileHandler handler;
+    private byte[] content;
+
+    /**
+     * Reports the input volume and the archive size next to the timing, so throughput and compression ratio
+     * can be derived from the results.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class ArchiveCounters {
+        public long inputBytes;
+        public long archiveBytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("archive-benchmark");
+        handler = BenchmarkFixtures.createHandler(root, compressionLevel);
+        localDirectory = root.resolve("local");
+        archiveDirectory = root.resolve("archive");
+        content = BenchmarkFixtures.demoContent(demoSize, 42);
+    }
+
+    @Setup(Level.Invocation)
+    public void prepareDemos() throws IOException {
+        BenchmarkFixtures.deleteRecursively(archiveDirectory);
+        Files.createDirectories(archiveDirectory);
+        for (int i = 0; i < demos; i++) {
+            Files.write(localDirectory.resolve(BenchmarkFixtures.demoName(i)), content);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkFixtures.deleteRecursively(root);
+    }
+
+    @Benchmark
+    public void zipDemos(ArchiveCounters counters) throws IOException {
+        handler.zipAndClearLocalDirectory(localDirectory.toFile());
+        counters.inputBytes += (long) demos * demoSize;
+        try (Stream<Path> archives = Files.list(archiveDirectory)) {
+            for (Path archive : archives.toList()) {
+                counters.archiveBytes += Files.size(archive);
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package at.emielregis.dathostdemomanager.ftp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link FtpFileHandler#getNextArchiveFileName} lists and regex-matches the whole archive directory every time a
+ * new archive is built.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ArchiveNamingBenchmark {
+
+    @Param({"100", "1000", "5000"})
+    public int archives;
+
+    private Path root;
+    private FtpFileHandler handler;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("archive-naming-benchmark");
+        handler = BenchmarkFixtures.createHandler(root, -1);
+        Path archiveDirectory = root.resolve("archive");
+        for (int i = 0; i < archives; i++) {
+            int left = i * 100 + 1;
+            Files.createFile(archiveDirectory.resolve(left + "-" + (left + 99) + ".zip"));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkFixtures.deleteRecursively(root);
+    }
+
+    @Benchmark
+    public String nextArchiveName() {
+        return handler.getNextArchiveFileName(100);
+    }
+}
@@ -0,0 +1,103 @@
+package at.emielregis.dathostdemomanager.ftp;
+
+import at.emielregis.dathostdemomanager.catalog.DemoCatalog;
+import at.emielregis.dathostdemomanager.storage.DiskSpaceAdmissionController;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Shared setup for the {@link FtpFileHandler} and retention benchmarks.
+ */
+public final class BenchmarkFixtures {
+
+    private static final DateTimeFormatter DEMO_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss");
+    private static final LocalDateTime FIRST_DEMO = LocalDateTime.of(2024, 1, 1, 12, 0, 0);
+
+    private BenchmarkFixtures() {
+    }
+
+    static FtpFileHandler createHandler(Path root, int compressionLevel) throws IOException {
+        FtpFileHandler handler = new FtpFileHandler();
+        ReflectionTestUtils.setField(handler, "localDirectory", Files.createDirectories(root.resolve("local")).toString());
+        ReflectionTestUtils.setField(handler, "archiveDirectory", Files.createDirectories(root.resolve("archive")).toString());
+        ReflectionTestUtils.setField(handler, "latestDemosDirectory", Files.createDirectories(root.resolve("latest")).toString());
+        ReflectionTestUtils.setField(handler, "maxArchiveDemos", 100);
+        ReflectionTestUtils.setField(handler, "coldDirectory", "");
+        ReflectionTestUtils.setField(handler, "archiveCompressionLevel", compressionLevel);
+        ReflectionTestUtils.setField(handler, "neededMinutesPassed", 360);
+        ReflectionTestUtils.setField(handler, "allowedFileEnding", ".dem");
+        ReflectionTestUtils.setField(handler, "minMegabytesMaps", 10_000);
+
+        ReflectionTestUtils.setField(handler, "demoCatalog", createCatalog(root));
+
+        DiskSpaceAdmissionController diskSpaceAdmissionController = new DiskSpaceAdmissionController();
+        ReflectionTestUtils.setField(diskSpaceAdmissionController, "minFreeMegabytes", 0L);
+        ReflectionTestUtils.setField(handler, "diskSpaceAdmissionController", diskSpaceAdmissionController);
+        return handler;
+    }
+
+    /**
+     * An empty demo catalog with its journal in {@code <root>/catalog}.
+     */
+    public static DemoCatalog createCatalog(Path root) throws IOException {
+        DemoCatalog demoCatalog = new DemoCatalog();
+        ReflectionTestUtils.setField(demoCatalog, "catalogDirectory", root.resolve("catalog").toString());
+        demoCatalog.init();
+        return demoCatalog;
+    }
+
+    /**
+     * Recording time of the demo with the given index, one minute after the previous one.
+     */
+    public static LocalDateTime demoTime(int index) {
+        return FIRST_DEMO.plusMinutes(index);
+    }
+
+    /**
+     * Demo file names as DatHost writes them, one minute apart.
+     */
+    public static String demoName(int index) {
+        return demoTime(index).format(DEMO_DATE_FORMAT) + "_" + (1000 + index) + "_de_dust2.dem";
+    }
+
+    /**
+     * Demo-like content: blocks of random bytes interleaved with repetitive blocks, which compresses roughly as
+     * well as real demos do.
+     */
+    static byte[] demoContent(int size, long seed) {
+        Random random = new Random(seed);
+        byte[] content = new byte[size];
+        for (int offset = 0; offset < size; offset += 4096) {
+            int length = Math.min(4096, size - offset);
+            if ((offset / 4096) % 2 == 0) {
+                byte[] block = new byte[length];
+                random.nextBytes(block);
+                System.arraycopy(block, 0, content, offset, length);
+            } else {
+                for (int i = 0; i < length; i++) {
+                    content[offset + i] = (byte) (i % 64);
+                }
+            }
+        }
+        return content;
+    }
+
+    public static void deleteRecursively(Path root) throws IOException {
+        if (!Files.exists(root)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
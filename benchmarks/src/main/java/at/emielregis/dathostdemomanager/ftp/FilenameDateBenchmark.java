@@ -0,0 +1,76 @@
+package at.emielregis.dathostdemomanager.ftp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link FtpFileHandler#extractDateFromFilename}, which is called for every remote file and is the sort
+ * key when the latest demos directory is trimmed.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FilenameDateBenchmark {
+
+    private static final int NAMES = 1024;
+
+    private Path root;
+    private FtpFileHandler handler;
+    private String[] names;
+    private File[] files;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("filename-date-benchmark");
+        handler = BenchmarkFixtures.createHandler(root, -1);
+        names = new String[NAMES];
+        files = new File[NAMES];
+        for (int i = 0; i < NAMES; i++) {
+            names[i] = BenchmarkFixtures.demoName(i);
+            files[i] = new File(root.toFile(), names[i]);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkFixtures.deleteRecursively(root);
+    }
+
+    @Benchmark
+    public long fromName() {
+        return handler.extractDateFromFilename(names[next++ & (NAMES - 1)]);
+    }
+
+    @Benchmark
+    public long fromFile() {
+        return handler.extractDateFromFilename(files[next++ & (NAMES - 1)]);
+    }
+
+    @Benchmark
+    public void sortKeysForDirectory(Blackhole blackhole) {
+        for (File file : files) {
+            blackhole.consume(handler.extractDateFromFilename(file));
+        }
+    }
+}
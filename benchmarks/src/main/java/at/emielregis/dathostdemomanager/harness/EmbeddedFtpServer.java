@@ -0,0 +1,126 @@
+package at.emielregis.dathostdemomanager.harness;
+
+import org.apache.ftpserver.ConnectionConfigFactory;
+import org.apache.ftpserver.FtpServer;
+import org.apache.ftpserver.FtpServerFactory;
+import org.apache.ftpserver.ftplet.DefaultFtplet;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpRequest;
+import org.apache.ftpserver.ftplet.FtpSession;
+import org.apache.ftpserver.ftplet.FtpletResult;
+import org.apache.ftpserver.ftplet.UserManager;
+import org.apache.ftpserver.listener.Listener;
+import org.apache.ftpserver.listener.ListenerFactory;
+import org.apache.ftpserver.usermanager.ClearTextPasswordEncryptor;
+import org.apache.ftpserver.usermanager.PropertiesUserManagerFactory;
+import org.apache.ftpserver.usermanager.impl.BaseUser;
+import org.apache.ftpserver.usermanager.impl.WritePermission;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process FTP server with one user per simulated DatHost server. Every user has its own home directory, so the
+ * servers look exactly like separate DatHost FTP accounts. Latency is added before every command and RETR
+ * commands can be answered by dropping the connection.
+ */
+class EmbeddedFtpServer implements AutoCloseable {
+
+    static final String PASSWORD = "harness";
+
+    private final Path root;
+    private final FtpServer server;
+    private final Listener listener;
+    private final AtomicLong commands = new AtomicLong();
+    private final AtomicLong disconnects = new AtomicLong();
+
+    EmbeddedFtpServer(Path root, List<String> serverIds, int latencyMillis, double disconnectRate) throws IOException, FtpException {
+        this.root = root;
+
+        PropertiesUserManagerFactory userManagerFactory = new PropertiesUserManagerFactory();
+        userManagerFactory.setFile(root.resolve("users.properties").toFile());
+        userManagerFactory.setPasswordEncryptor(new ClearTextPasswordEncryptor());
+        UserManager userManager = userManagerFactory.createUserManager();
+        for (String serverId : serverIds) {
+            Path home = Files.createDirectories(homeDirectory(serverId));
+            BaseUser user = new BaseUser();
+            user.setName(serverId);
+            user.setPassword(PASSWORD);
+            user.setHomeDirectory(home.toString());
+            user.setAuthorities(List.of(new WritePermission()));
+            userManager.save(user);
+        }
+
+        ConnectionConfigFactory connectionConfigFactory = new ConnectionConfigFactory();
+        connectionConfigFactory.setMaxLogins(Math.max(100, serverIds.size() * 2));
+        connectionConfigFactory.setMaxThreads(Math.max(16, serverIds.size() * 2));
+
+        ListenerFactory listenerFactory = new ListenerFactory();
+        listenerFactory.setServerAddress("127.0.0.1");
+        listenerFactory.setPort(0);
+        listener = listenerFactory.createListener();
+
+        FtpServerFactory serverFactory = new FtpServerFactory();
+        serverFactory.setUserManager(userManager);
+        serverFactory.setConnectionConfig(connectionConfigFactory.createConnectionConfig());
+        serverFactory.addListener("default", listener);
+        serverFactory.setFtplets(Map.of("faults", new FaultInjectingFtplet(latencyMillis, disconnectRate)));
+        server = serverFactory.createServer();
+        server.start();
+    }
+
+    int port() {
+        return listener.getPort();
+    }
+
+    Path homeDirectory(String serverId) {
+        return root.resolve("home").resolve(serverId);
+    }
+
+    long commands() {
+        return commands.get();
+    }
+
+    long disconnects() {
+        return disconnects.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop();
+    }
+
+    private class FaultInjectingFtplet extends DefaultFtplet {
+
+        private final int latencyMillis;
+        private final double disconnectRate;
+
+        FaultInjectingFtplet(int latencyMillis, double disconnectRate) {
+            this.latencyMillis = latencyMillis;
+            this.disconnectRate = disconnectRate;
+        }
+
+        @Override
+        public FtpletResult beforeCommand(FtpSession session, FtpRequest request) throws FtpException, IOException {
+            commands.incrementAndGet();
+            if (latencyMillis > 0) {
+                try {
+                    Thread.sleep(latencyMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return FtpletResult.DISCONNECT;
+                }
+            }
+            if (request.getCommand().equalsIgnoreCase("RETR") && ThreadLocalRandom.current().nextDouble() < disconnectRate) {
+                disconnects.incrementAndGet();
+                return FtpletResult.DISCONNECT;
+            }
+            return FtpletResult.DEFAULT;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package at.emielregis.dathostdemomanager.harness;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Options of the load harness, given as {@code --name=value} arguments.
+ */
+record HarnessOptions(int servers, int demosPerServer, int demoSizeKilobytes, int workshopDirectories,
+                      int workshopFilesPerDirectory, int cycles, int ftpLatencyMillis, double disconnectRate,
+                      int apiLatencyMillis, double apiFailureRate, int playersOnline, int instances) {
+
+    private static final Set<String> KNOWN_OPTIONS = Set.of("servers", "demos-per-server", "demo-size-kb",
+            "workshop-dirs", "workshop-files", "cycles", "ftp-latency-ms", "disconnect-rate", "api-latency-ms",
+            "api-failure-rate", "players-online", "instances");
+
+    static HarnessOptions parse(String[] args) {
+        Map<String, String> values = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --name=value but got: " + arg);
+            }
+            int separator = arg.indexOf('=');
+            values.put(arg.substring(2, separator), arg.substring(separator + 1));
+        }
+        HarnessOptions options = new HarnessOptions(
+                Integer.parseInt(values.getOrDefault("servers", "10")),
+                Integer.parseInt(values.getOrDefault("demos-per-server", "20")),
+                Integer.parseInt(values.getOrDefault("demo-size-kb", "4096")),
+                Integer.parseInt(values.getOrDefault("workshop-dirs", "5")),
+                Integer.parseInt(values.getOrDefault("workshop-files", "10")),
+                Integer.parseInt(values.getOrDefault("cycles", "3")),
+                Integer.parseInt(values.getOrDefault("ftp-latency-ms", "0")),
+                Double.parseDouble(values.getOrDefault("disconnect-rate", "0")),
+                Integer.parseInt(values.getOrDefault("api-latency-ms", "0")),
+                Double.parseDouble(values.getOrDefault("api-failure-rate", "0")),
+                Integer.parseInt(values.getOrDefault("players-online", "0")),
+                Integer.parseInt(values.getOrDefault("instances", "1")));
+        values.keySet().removeAll(KNOWN_OPTIONS);
+        if (!values.isEmpty()) {
+            throw new IllegalArgumentException("Unknown options: " + values.keySet());
+        }
+        if (options.servers() < 1 || options.cycles() < 1 || options.instances() < 1) {
+            throw new IllegalArgumentException("At least one server, one cycle and one instance are needed");
+        }
+        return options;
+    }
+
+    static String usage() {
+        return """
+                Options (all optional):
+                  --servers=10             number of simulated DatHost servers
+                  --demos-per-server=20    demos placed on every server before each cycle
+                  --demo-size-kb=4096      size of every demo
+                  --workshop-dirs=5        workshop map directories per server
+                  --workshop-files=10      files per workshop map directory
+                  --cycles=3               harvest cycles to run
+                  --ftp-latency-ms=0       delay added before every FTP command
+                  --disconnect-rate=0      probability that a RETR command drops the connection
+                  --api-latency-ms=0       delay added to every DatHost API call
+                  --api-failure-rate=0     probability that a DatHost API call answers 503
+                  --players-online=0       players reported for every server
+                  --instances=1            application instances sharing the servers through lease files
+                """;
+    }
+}
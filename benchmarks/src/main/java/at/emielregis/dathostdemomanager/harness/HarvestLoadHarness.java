@@ -0,0 +1,324 @@
+package at.emielregis.dathostdemomanager.harness;
+
+import at.emielregis.dathostdemomanager.DatHostDemoManagerApplication;
+import at.emielregis.dathostdemomanager.catalog.DemoCatalog;
+import at.emielregis.dathostdemomanager.catalog.DemoCatalogEntry;
+import at.emielregis.dathostdemomanager.ftp.FtpConfigProcessor;
+import at.emielregis.dathostdemomanager.resilience.CircuitBreaker;
+import at.emielregis.dathostdemomanager.resilience.CircuitBreakerRegistry;
+import at.emielregis.dathostdemomanager.sharding.ServerLeaseManager;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * End-to-end load harness for the harvester. Starts an embedded FTP server with one account per simulated DatHost
+ * server and a stub of the DatHost API, boots the application against them and runs a configurable number of demo
+ * harvest and map deletion cycles. Reports harvest throughput and cycle latency; no network access is needed.
+ * <p>
+ * With {@code --instances} above one, several application instances run in this JVM with their own local directories
+ * and split the servers through a shared lease directory. The harness then also reports demos that were harvested by
+ * more than one instance and how long the rebalancing takes after one instance is stopped.
+ * <p>
+ * The harness exits with status 1 if a demo is still on the FTP servers after the last cycle, or if any demo was
+ * harvested by more than one instance, so it can be used as a regression check.
+ */
+public class HarvestLoadHarness {
+
+    private static final DateTimeFormatter DEMO_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss");
+    private static final LocalDateTime FIRST_DEMO = LocalDateTime.of(2024, 1, 1, 12, 0, 0);
+
+    private final HarnessOptions options;
+    private final Path root;
+    private final List<String> serverIds = new ArrayList<>();
+    private final byte[] demoContent;
+    private int demoCounter;
+
+    private HarvestLoadHarness(HarnessOptions options, Path root) {
+        this.options = options;
+        this.root = root;
+        for (int i = 1; i <= options.servers(); i++) {
+            serverIds.add("server-" + i);
+        }
+        demoContent = new byte[options.demoSizeKilobytes() * 1024];
+        new Random(42).nextBytes(demoContent);
+    }
+
+    public static void main(String[] args) throws Exception {
+        HarnessOptions options;
+        try {
+            options = HarnessOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(HarnessOptions.usage());
+            System.exit(1);
+            return;
+        }
+
+        Path root = Files.createTempDirectory("harvest-harness");
+        List<String> failures;
+        try {
+            failures = new HarvestLoadHarness(options, root).run();
+        } finally {
+            deleteRecursively(root);
+        }
+        if (!failures.isEmpty()) {
+            System.out.println();
+            failures.forEach(failure -> System.err.println("FAILED: " + failure));
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs the cycles and returns the failed checks, an empty list if the run passed.
+     */
+    private List<String> run() throws Exception {
+        List<String> failures = new ArrayList<>();
+        try (EmbeddedFtpServer ftpServer = new EmbeddedFtpServer(root.resolve("ftp"), serverIds,
+                options.ftpLatencyMillis(), options.disconnectRate());
+             StubDatHostApi datHostApi = new StubDatHostApi(options.apiLatencyMillis(), options.apiFailureRate(),
+                     options.playersOnline())) {
+
+            List<ConfigurableApplicationContext> instances = new ArrayList<>();
+            ExecutorService executor = Executors.newFixedThreadPool(options.instances());
+            try {
+                for (int instance = 1; instance <= options.instances(); instance++) {
+                    instances.add(new SpringApplicationBuilder(DatHostDemoManagerApplication.class)
+                            .run(applicationArguments(instance, ftpServer.port(), datHostApi.baseUrl())));
+                }
+                if (instances.size() > 1) {
+                    long balanceMillis = awaitLeases(instances);
+                    System.out.printf("Leases of %d servers balanced across %d instances after %d ms%n",
+                            serverIds.size(), instances.size(), balanceMillis);
+                }
+
+                List<Long> harvestMillis = new ArrayList<>();
+                List<Long> mapDeletionMillis = new ArrayList<>();
+                long placedDemos = 0;
+                long harvestedDemos = 0;
+                int remaining = 0;
+
+                System.out.printf("Harvesting %d servers x %d demos of %d KB for %d cycles%n",
+                        options.servers(), options.demosPerServer(), options.demoSizeKilobytes(), options.cycles());
+                for (int cycle = 1; cycle <= options.cycles(); cycle++) {
+                    int placed = fillServers(ftpServer);
+
+                    long start = System.nanoTime();
+                    runOnAllInstances(executor, instances, processor -> processor.downloadDemos(true));
+                    long harvestElapsed = (System.nanoTime() - start) / 1_000_000;
+
+                    // demos left over by an earlier cycle are still on the servers and may be harvested now
+                    int remainingBefore = remaining;
+                    remaining = countRemainingDemos(ftpServer);
+                    int harvested = remainingBefore + placed - remaining;
+                    placedDemos += placed;
+                    harvestedDemos += harvested;
+                    harvestMillis.add(harvestElapsed);
+
+                    start = System.nanoTime();
+                    runOnAllInstances(executor, instances, FtpConfigProcessor::deleteMaps);
+                    long mapDeletionElapsed = (System.nanoTime() - start) / 1_000_000;
+                    mapDeletionMillis.add(mapDeletionElapsed);
+
+                    System.out.printf("cycle %d: harvested %d/%d demos in %d ms (%.1f MB/s), map deletion %d ms%n",
+                            cycle, harvested, placed, harvestElapsed,
+                            megabytesPerSecond((long) harvested * demoContent.length, harvestElapsed), mapDeletionElapsed);
+                }
+
+                long totalHarvestMillis = harvestMillis.stream().mapToLong(Long::longValue).sum();
+                System.out.println();
+                System.out.printf("demos harvested:        %d of %d (%d MB)%n", harvestedDemos, placedDemos,
+                        harvestedDemos * demoContent.length / (1024 * 1024));
+                if (harvestedDemos != placedDemos) {
+                    failures.add(String.format("%d of %d demos were not harvested", placedDemos - harvestedDemos, placedDemos));
+                }
+                System.out.printf("harvest throughput:     %.1f MB/s, %.1f demos/s%n",
+                        megabytesPerSecond(harvestedDemos * demoContent.length, totalHarvestMillis),
+                        harvestedDemos * 1000.0 / Math.max(1, totalHarvestMillis));
+                System.out.printf("harvest cycle latency:  %s%n", describe(harvestMillis));
+                System.out.printf("map deletion latency:   %s%n", describe(mapDeletionMillis));
+                System.out.printf("ftp commands:           %d (%d dropped connections)%n",
+                        ftpServer.commands(), ftpServer.disconnects());
+                System.out.printf("dathost api requests:   %d (%d failed)%n", datHostApi.requests(), datHostApi.failures());
+                List<CircuitBreaker.Snapshot> breakers = instances.stream()
+                        .flatMap(instance -> instance.getBean(CircuitBreakerRegistry.class).snapshots().stream())
+                        .toList();
+                System.out.printf("circuit breakers:       %d open, %d calls rejected%n",
+                        breakers.stream().filter(breaker -> breaker.state() != CircuitBreaker.State.CLOSED).count(),
+                        breakers.stream().mapToLong(CircuitBreaker.Snapshot::rejected).sum());
+
+                if (instances.size() > 1) {
+                    List<String> cataloged = instances.stream()
+                            .flatMap(instance -> instance.getBean(DemoCatalog.class).entries().stream())
+                            .map(DemoCatalogEntry::fileName)
+                            .toList();
+                    int harvestedTwice = cataloged.size() - new HashSet<>(cataloged).size();
+                    System.out.printf("demos harvested twice:  %d%n", harvestedTwice);
+                    if (harvestedTwice > 0) {
+                        failures.add(harvestedTwice + " demos were harvested by more than one instance");
+                    }
+
+                    // a clean shutdown releases the leases, the others take the servers over on their next heartbeat
+                    ConfigurableApplicationContext stopped = instances.remove(instances.size() - 1);
+                    stopped.close();
+                    System.out.printf("rebalance after stop:   %d ms%n", awaitLeases(instances));
+                }
+            } finally {
+                executor.shutdownNow();
+                for (ConfigurableApplicationContext instance : instances) {
+                    instance.close();
+                }
+            }
+        }
+        return failures;
+    }
+
+    private static void runOnAllInstances(ExecutorService executor, List<ConfigurableApplicationContext> instances,
+                                          Consumer<FtpConfigProcessor> task) throws Exception {
+        List<Future<?>> runs = new ArrayList<>();
+        for (ConfigurableApplicationContext instance : instances) {
+            FtpConfigProcessor processor = instance.getBean(FtpConfigProcessor.class);
+            runs.add(executor.submit(() -> task.accept(processor)));
+        }
+        for (Future<?> run : runs) {
+            run.get();
+        }
+    }
+
+    /**
+     * Waits until the instances hold the lease of every server between them, none above its fair share, and returns
+     * the time it took.
+     */
+    private long awaitLeases(List<ConfigurableApplicationContext> instances) throws InterruptedException {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.SECONDS.toNanos(60);
+        while (System.nanoTime() < deadline) {
+            List<ServerLeaseManager.LeaseStatus> statuses = instances.stream()
+                    .map(instance -> instance.getBean(ServerLeaseManager.class).status())
+                    .toList();
+            int held = statuses.stream().mapToInt(status -> status.heldServers().size()).sum();
+            boolean fair = statuses.stream().allMatch(status -> status.heldServers().size() <= status.fairShare()
+                    && status.liveInstances() == instances.size());
+            if (held == serverIds.size() && fair) {
+                return (System.nanoTime() - start) / 1_000_000;
+            }
+            Thread.sleep(100);
+        }
+        throw new IllegalStateException("The leases were not balanced within 60 seconds");
+    }
+
+    private String[] applicationArguments(int instance, int ftpPort, String datHostApiUrl) throws IOException {
+        // every instance gets its own local directories, like instances on separate hosts would
+        Path base = options.instances() == 1 ? root : root.resolve("instance-" + instance);
+        List<String> args = new ArrayList<>(List.of(
+                "--spring.main.web-application-type=none",
+                "--spring.main.banner-mode=off",
+                "--logging.level.root=warn",
+                // the harness drives the cycles itself, the scheduled tasks must not run in parallel
+                "--settings.demos.fetch-demos=false",
+                "--settings.maps.delete-maps=false",
+                "--settings.demos.minutes-after-demo=0",
+                "--settings.maps.min-megabytes-maps=0",
+                "--settings.dathost-api-url=" + datHostApiUrl,
+                "--settings.workshop-image-path=" + base.resolve("workshop-images"),
+                "--settings.workshop-cache.directory=" + base.resolve("workshop-cache"),
+                "--settings.catalog.directory=" + base.resolve("catalog"),
+                "--ftp.local.directory=" + Files.createDirectories(base.resolve("local")),
+                "--ftp.local.archive-directory=" + Files.createDirectories(base.resolve("archive")),
+                "--ftp.local.latest-demos-directory=" + Files.createDirectories(base.resolve("latest"))));
+        if (options.instances() > 1) {
+            args.addAll(List.of(
+                    "--settings.sharding.enabled=true",
+                    "--settings.sharding.directory=" + root.resolve("leases"),
+                    "--settings.sharding.instance-id=instance-" + instance,
+                    "--settings.sharding.heartbeat-seconds=1",
+                    "--settings.sharding.lease-seconds=3"));
+        }
+        for (int i = 0; i < serverIds.size(); i++) {
+            String prefix = "--ftp.servers[" + i + "].";
+            args.add(prefix + "host=127.0.0.1");
+            args.add(prefix + "port=" + ftpPort);
+            args.add(prefix + "username=" + serverIds.get(i));
+            args.add(prefix + "password=" + EmbeddedFtpServer.PASSWORD);
+            args.add(prefix + "server-id=" + serverIds.get(i));
+            args.add(prefix + "demos-folder=/demos");
+            args.add(prefix + "maps-folder=/maps");
+        }
+        return args.toArray(new String[0]);
+    }
+
+    /**
+     * Puts fresh demos and workshop map directories on every server and returns the number of demos placed.
+     */
+    private int fillServers(EmbeddedFtpServer ftpServer) throws IOException {
+        int placed = 0;
+        for (String serverId : serverIds) {
+            Path home = ftpServer.homeDirectory(serverId);
+            Path demos = Files.createDirectories(home.resolve("demos"));
+            for (int i = 0; i < options.demosPerServer(); i++) {
+                String name = FIRST_DEMO.plusMinutes(demoCounter++).format(DEMO_DATE_FORMAT) + "_" + serverId + "_de_dust2.dem";
+                Files.write(demos.resolve(name), demoContent);
+                placed++;
+            }
+
+            Path workshop = Files.createDirectories(home.resolve("maps").resolve("content").resolve("730"));
+            for (int i = 0; i < options.workshopDirectories(); i++) {
+                Path mapDirectory = Files.createDirectories(workshop.resolve(String.valueOf(3_000_000_000L + i)));
+                for (int j = 0; j < options.workshopFilesPerDirectory(); j++) {
+                    Files.write(mapDirectory.resolve("file" + j + ".vpk"), new byte[1024]);
+                }
+            }
+            Files.writeString(home.resolve("maps").resolve("appworkshop_730.acf"), "\"AppWorkshop\" {}");
+        }
+        return placed;
+    }
+
+    private int countRemainingDemos(EmbeddedFtpServer ftpServer) throws IOException {
+        int remaining = 0;
+        for (String serverId : serverIds) {
+            try (Stream<Path> demos = Files.list(ftpServer.homeDirectory(serverId).resolve("demos"))) {
+                remaining += (int) demos.count();
+            }
+        }
+        return remaining;
+    }
+
+    private static double megabytesPerSecond(long bytes, long millis) {
+        return bytes / (1024.0 * 1024.0) / (Math.max(1, millis) / 1000.0);
+    }
+
+    private static String describe(List<Long> millis) {
+        List<Long> sorted = millis.stream().sorted().toList();
+        return String.format("p50 %d ms, p95 %d ms, max %d ms",
+                percentile(sorted, 0.5), percentile(sorted, 0.95), sorted.get(sorted.size() - 1));
+    }
+
+    private static long percentile(List<Long> sorted, double percentile) {
+        int index = (int) Math.ceil(percentile * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(index, sorted.size() - 1)));
+    }
+
+    private static void deleteRecursively(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
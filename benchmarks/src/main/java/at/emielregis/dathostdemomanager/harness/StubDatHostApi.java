@@ -0,0 +1,111 @@
+package at.emielregis.dathostdemomanager.harness;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Minimal stand-in for the DatHost game server API. It answers the status, stop and start calls made by
+ * {@code DatHostServerAccessor}, keeps the on/off state per server and can add latency and failures.
+ */
+class StubDatHostApi implements AutoCloseable {
+
+    private static final String PREFIX = "/api/0.1/game-servers/";
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final int latencyMillis;
+    private final double failureRate;
+    private final int playersOnline;
+    private final Map<String, Boolean> serverStates = new ConcurrentHashMap<>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    StubDatHostApi(int latencyMillis, double failureRate, int playersOnline) throws IOException {
+        this.latencyMillis = latencyMillis;
+        this.failureRate = failureRate;
+        this.playersOnline = playersOnline;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext(PREFIX, this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    String baseUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/api/0.1";
+    }
+
+    long requests() {
+        return requests.get();
+    }
+
+    long failures() {
+        return failures.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try (exchange) {
+            sleep(latencyMillis);
+            if (ThreadLocalRandom.current().nextDouble() < failureRate) {
+                failures.incrementAndGet();
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+
+            String[] path = exchange.getRequestURI().getPath().substring(PREFIX.length()).split("/");
+            String serverId = path[0];
+            String method = exchange.getRequestMethod();
+            if (path.length == 1 && method.equals("GET")) {
+                boolean on = serverStates.getOrDefault(serverId, true);
+                respond(exchange, "{\"id\":\"" + serverId + "\",\"on\":" + on
+                        + ",\"players_online\":" + (on ? playersOnline : 0) + "}");
+            } else if (path.length == 2 && method.equals("POST") && path[1].equals("stop")) {
+                serverStates.put(serverId, false);
+                exchange.sendResponseHeaders(200, -1);
+            } else if (path.length == 2 && method.equals("POST") && path[1].equals("start")) {
+                serverStates.put(serverId, true);
+                exchange.sendResponseHeaders(200, -1);
+            } else {
+                exchange.sendResponseHeaders(404, -1);
+            }
+        }
+    }
+
+    private void respond(HttpExchange exchange, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private void sleep(int millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
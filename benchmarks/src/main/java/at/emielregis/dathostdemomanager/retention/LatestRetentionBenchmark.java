@@ -0,0 +1,96 @@
+package at.emielregis.dathostdemomanager.retention;
+
+import at.emielregis.dathostdemomanager.catalog.ArchiveTier;
+import at.emielregis.dathostdemomanager.catalog.DemoCatalog;
+import at.emielregis.dathostdemomanager.catalog.DemoCatalogEntry;
+import at.emielregis.dathostdemomanager.ftp.BenchmarkFixtures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZoneOffset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Trimming the latest demos directory with {@link RetentionEngine#enforceLatest}, which selects the demos to delete
+ * from the catalog instead of listing and sorting the directory. The deleted demo is recreated before every
+ * invocation, so every call sees the same directory size; the time includes the catalog journal write.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LatestRetentionBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int files;
+
+    private Path root;
+    private Path latestDirectory;
+    private DemoCatalog demoCatalog;
+    private RetentionEngine retentionEngine;
+    private DemoCatalogEntry oldest;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("latest-retention-benchmark");
+        latestDirectory = Files.createDirectories(root.resolve("latest"));
+
+        demoCatalog = BenchmarkFixtures.createCatalog(root);
+
+        retentionEngine = new RetentionEngine();
+        ReflectionTestUtils.setField(retentionEngine, "localDirectory", Files.createDirectories(root.resolve("local")).toString());
+        ReflectionTestUtils.setField(retentionEngine, "latestDemosDirectory", latestDirectory.toString());
+        // demo 0 is the oldest one and gets deleted on every invocation
+        ReflectionTestUtils.setField(retentionEngine, "maxLatestDemos", files - 1);
+        ReflectionTestUtils.setField(retentionEngine, "demoCatalog", demoCatalog);
+
+        for (int i = 0; i < files; i++) {
+            String fileName = BenchmarkFixtures.demoName(i);
+            Files.createFile(latestDirectory.resolve(fileName));
+            long recordedAt = BenchmarkFixtures.demoTime(i).toEpochSecond(ZoneOffset.UTC);
+            DemoCatalogEntry entry = new DemoCatalogEntry(fileName, "server-1", recordedAt,
+                    0, "de_dust2", "server", 0, 0, "1-100.zip", ArchiveTier.HOT, true);
+            demoCatalog.addIfAbsent(entry);
+            if (i == 0) {
+                oldest = entry;
+            }
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void restoreOldestDemo() throws IOException {
+        Path file = latestDirectory.resolve(oldest.fileName());
+        if (!Files.exists(file)) {
+            Files.createFile(file);
+        }
+        demoCatalog.markInLatest(oldest.fileName(), true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        demoCatalog.close();
+        BenchmarkFixtures.deleteRecursively(root);
+    }
+
+    @Benchmark
+    public void deleteOldest() {
+        retentionEngine.enforceLatest(null);
+    }
+}
@@ -0,0 +1,168 @@
+package at.emielregis.dathostdemomanager.workshop;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the streaming {@link SteamResponseParser} with the previous approach of reading the whole body into a
+ * String and building a Gson tree. Run with {@code -prof gc} and compare {@code gc.alloc.rate.norm} to see the
+ * memory allocated per parsed response.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SteamResponseParserBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int items;
+
+    @Param({"2000"})
+    public int descriptionLength;
+
+    private byte[] detailsResponse;
+    private byte[] collectionResponse;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        detailsResponse = createDetailsResponse().getBytes(StandardCharsets.UTF_8);
+        collectionResponse = createCollectionResponse().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public void detailsTree(Blackhole blackhole) {
+        // what response.body().string() followed by JsonParser.parseString did
+        String body = new String(detailsResponse, StandardCharsets.UTF_8);
+        JsonArray details = JsonParser.parseString(body).getAsJsonObject()
+                .getAsJsonObject("response")
+                .getAsJsonArray("publishedfiledetails");
+        for (JsonElement element : details) {
+            JsonObject item = element.getAsJsonObject();
+            blackhole.consume(new PublishedMap(
+                    item.get("title").getAsString(),
+                    item.get("publishedfileid").getAsString(),
+                    item.get("subscriptions").getAsInt(),
+                    item.get("lifetime_subscriptions").getAsInt(),
+                    item.get("lifetime_favorited").getAsInt(),
+                    SteamResponseParser.determineMapType(item.get("description").getAsString()),
+                    item.get("preview_url").getAsString()));
+        }
+    }
+
+    @Benchmark
+    public void detailsStreaming(Blackhole blackhole) throws IOException {
+        SteamResponseParser.parsePublishedFileDetails(
+                new InputStreamReader(new ByteArrayInputStream(detailsResponse), StandardCharsets.UTF_8),
+                blackhole::consume, blackhole::consume);
+    }
+
+    @Benchmark
+    public void collectionTree(Blackhole blackhole) {
+        String body = new String(collectionResponse, StandardCharsets.UTF_8);
+        JsonArray children = JsonParser.parseString(body).getAsJsonObject()
+                .getAsJsonObject("response")
+                .getAsJsonArray("collectiondetails")
+                .get(0).getAsJsonObject()
+                .getAsJsonArray("children");
+        for (JsonElement child : children) {
+            blackhole.consume(child.getAsJsonObject().get("publishedfileid").getAsString());
+        }
+    }
+
+    @Benchmark
+    public int collectionStreaming(Blackhole blackhole) throws IOException {
+        return SteamResponseParser.parseCollectionChildren(
+                new InputStreamReader(new ByteArrayInputStream(collectionResponse), StandardCharsets.UTF_8),
+                blackhole::consume);
+    }
+
+    private String createDetailsResponse() {
+        JsonArray details = new JsonArray();
+        String description = "A defusal map for competitive play. ".repeat(descriptionLength / 36 + 1)
+                .substring(0, descriptionLength);
+        for (int i = 0; i < items; i++) {
+            JsonObject item = new JsonObject();
+            item.addProperty("publishedfileid", String.valueOf(3_000_000_000L + i));
+            item.addProperty("result", 1);
+            item.addProperty("creator", "76561198000000000");
+            item.addProperty("creator_app_id", 730);
+            item.addProperty("consumer_app_id", 730);
+            item.addProperty("filename", "");
+            item.addProperty("file_size", 123_456_789);
+            item.addProperty("file_url", "");
+            item.addProperty("hcontent_file", "1234567890123456789");
+            item.addProperty("preview_url", "https://steamuserimages-a.akamaihd.net/ugc/" + i + "/preview.png");
+            item.addProperty("hcontent_preview", "9876543210987654321");
+            item.addProperty("title", "Workshop Map " + i);
+            item.addProperty("description", description);
+            item.addProperty("time_created", 1_700_000_000 + i);
+            item.addProperty("time_updated", 1_710_000_000 + i);
+            item.addProperty("visibility", 0);
+            item.addProperty("banned", 0);
+            item.addProperty("ban_reason", "");
+            item.addProperty("subscriptions", 1000 + i);
+            item.addProperty("favorited", 100 + i);
+            item.addProperty("lifetime_subscriptions", 2000 + i);
+            item.addProperty("lifetime_favorited", 200 + i);
+            item.addProperty("views", 5000 + i);
+            JsonArray tags = new JsonArray();
+            JsonObject tag = new JsonObject();
+            tag.addProperty("tag", "Map");
+            tags.add(tag);
+            item.add("tags", tags);
+            details.add(item);
+        }
+        return wrap("publishedfiledetails", details);
+    }
+
+    private String createCollectionResponse() {
+        JsonArray children = new JsonArray();
+        for (int i = 0; i < items; i++) {
+            JsonObject child = new JsonObject();
+            child.addProperty("publishedfileid", String.valueOf(3_000_000_000L + i));
+            child.addProperty("sortorder", i + 1);
+            child.addProperty("filetype", 0);
+            children.add(child);
+        }
+        JsonObject collection = new JsonObject();
+        collection.addProperty("publishedfileid", "2000000000");
+        collection.addProperty("result", 1);
+        collection.add("children", children);
+        JsonArray collections = new JsonArray();
+        collections.add(collection);
+        return wrap("collectiondetails", collections);
+    }
+
+    private String wrap(String arrayName, JsonArray array) {
+        JsonObject response = new JsonObject();
+        response.addProperty("result", 1);
+        response.addProperty("resultcount", array.size());
+        response.add(arrayName, array);
+        JsonObject root = new JsonObject();
+        root.add("response", response);
+        return root.toString();
+    }
+}
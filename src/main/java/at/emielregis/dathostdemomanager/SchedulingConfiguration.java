@@ -0,0 +1,51 @@
+package at.emielregis.dathostdemomanager;
+
+import org.springframework.boot.task.ThreadPoolTaskSchedulerBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+/**
+ * Schedulers of the periodic jobs. The demo and map runs of {@link ProgramExecutor} use the FTP client of every server
+ * and the map run stops servers, so they share the single-threaded default scheduler and never overlap. Jobs that
+ * must keep running during a long harvest get their own threads: the transfer rate refresh, which throttles running
+ * downloads, the lease heartbeat, which must renew the leases of the servers being harvested before they expire, and
+ * the maintenance jobs (retention runs, server inventory reloads).
+ */
+@Configuration
+public class SchedulingConfiguration {
+
+    public static final String TRANSFER_RATE_SCHEDULER = "transferRateScheduler";
+    public static final String LEASE_HEARTBEAT_SCHEDULER = "leaseHeartbeatScheduler";
+    public static final String MAINTENANCE_SCHEDULER = "maintenanceScheduler";
+
+    // defining schedulers replaces the auto-configured default one, the builder keeps spring.task.scheduling applied
+    @Bean(name = "taskScheduler")
+    public ThreadPoolTaskScheduler taskScheduler(ThreadPoolTaskSchedulerBuilder builder) {
+        return builder.build();
+    }
+
+    @Bean(name = TRANSFER_RATE_SCHEDULER)
+    public ThreadPoolTaskScheduler transferRateScheduler() {
+        return scheduler(1, "transfer-rate-");
+    }
+
+    @Bean(name = LEASE_HEARTBEAT_SCHEDULER)
+    public ThreadPoolTaskScheduler leaseHeartbeatScheduler() {
+        return scheduler(1, "lease-heartbeat-");
+    }
+
+    // retention runs can take minutes while archives are recompressed, the inventory reloads must not wait for them
+    @Bean(name = MAINTENANCE_SCHEDULER)
+    public ThreadPoolTaskScheduler maintenanceScheduler() {
+        return scheduler(2, "maintenance-");
+    }
+
+    static ThreadPoolTaskScheduler scheduler(int poolSize, String threadNamePrefix) {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(poolSize);
+        scheduler.setThreadNamePrefix(threadNamePrefix);
+        scheduler.setWaitForTasksToCompleteOnShutdown(false);
+        return scheduler;
+    }
+}
@@ -0,0 +1,10 @@
+package at.emielregis.dathostdemomanager.catalog;
+
+/**
+ * Storage tier of an archive: freshly written, recompressed at a higher level, or moved to the cold directory.
+ */
+public enum ArchiveTier {
+    HOT,
+    RECOMPRESSED,
+    COLD
+}
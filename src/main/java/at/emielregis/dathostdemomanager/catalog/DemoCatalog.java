@@ -0,0 +1,339 @@
+package at.emielregis.dathostdemomanager.catalog;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Searchable index of all harvested demos. When a demo is downloaded its header is read (see
+ * {@link DemoHeaderParser}) and the entry is kept in memory, so queries never touch the demo files or the archives.
+ * Every change is appended as one JSON line to a journal, which is replayed on startup and compacted once it holds
+ * much more lines than there are entries.
+ */
+@Component
+public class DemoCatalog {
+
+    private static final Logger logger = LoggerFactory.getLogger(DemoCatalog.class);
+
+    private static final String JOURNAL_FILE = "catalog.jsonl";
+    private static final int MIN_LINES_BEFORE_COMPACTION = 1000;
+    private static final Pattern ARCHIVE_NAME = Pattern.compile("\\d+-(\\d+)\\.zip");
+
+    @Value("${settings.catalog.directory}")
+    private String catalogDirectory;
+
+    private final Map<String, DemoCatalogEntry> entries = new ConcurrentHashMap<>();
+
+    private Path journal;
+    private BufferedWriter journalWriter;
+    private int journalLines;
+    private long highestArchiveNumber;
+
+    @PostConstruct
+    public void init() throws IOException {
+        journal = Files.createDirectories(Paths.get(catalogDirectory)).resolve(JOURNAL_FILE);
+        if (Files.exists(journal)) {
+            replayJournal();
+        }
+        if (journalLines > Math.max(MIN_LINES_BEFORE_COMPACTION, entries.size() * 2)) {
+            compact();
+        }
+        journalWriter = Files.newBufferedWriter(journal, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        logger.info("Loaded {} demos into the catalog from {}", entries.size(), journal);
+    }
+
+    @PreDestroy
+    public synchronized void close() throws IOException {
+        if (journalWriter != null) {
+            journalWriter.close();
+        }
+    }
+
+    /**
+     * Adds a freshly downloaded demo to the catalog. A demo whose header cannot be read is still added, so it can
+     * be found by server and date.
+     */
+    public DemoCatalogEntry record(String serverId, Path demo, long recordedAt) {
+        String fileName = demo.getFileName().toString();
+        DemoHeader header = null;
+        long sizeBytes = 0;
+        try {
+            sizeBytes = Files.size(demo);
+            header = DemoHeaderParser.parse(demo).orElse(null);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Failed to read the header of demo {}", fileName, e);
+        }
+        if (header == null) {
+            logger.warn("Demo {} has no readable header, cataloging it without map and duration.", fileName);
+            header = new DemoHeader(null, null, 0, 0);
+        }
+        DemoCatalogEntry entry = new DemoCatalogEntry(fileName, serverId, recordedAt, sizeBytes, header.mapName(),
+                header.serverName(), header.durationSeconds(), header.ticks(), null, ArchiveTier.HOT, false);
+        put(entry);
+        logger.info("Cataloged demo {}: map {}, {} ticks.", fileName, entry.mapName(), entry.ticks());
+        return entry;
+    }
+
+    /**
+     * Adds an entry that was not recorded at download time, e.g. a demo found in a directory that was filled
+     * before the catalog existed. Returns false if the catalog already knows the demo.
+     */
+    public synchronized boolean addIfAbsent(DemoCatalogEntry entry) {
+        if (entries.containsKey(entry.fileName())) {
+            return false;
+        }
+        put(entry);
+        return true;
+    }
+
+    /**
+     * The highest demo number of all archives ever cataloged ({@code 1-100.zip} ends at 100). It is kept in the
+     * journal, so archive numbers are never given out twice even after every archive has been deleted.
+     */
+    public synchronized long getHighestArchiveNumber() {
+        return highestArchiveNumber;
+    }
+
+    public Optional<DemoCatalogEntry> get(String fileName) {
+        return Optional.ofNullable(entries.get(fileName));
+    }
+
+    public Collection<DemoCatalogEntry> entries() {
+        return List.copyOf(entries.values());
+    }
+
+    public synchronized void markInLatest(String fileName, boolean inLatest) {
+        DemoCatalogEntry entry = entries.get(fileName);
+        if (entry != null && entry.inLatest() != inLatest) {
+            put(entry.withInLatest(inLatest));
+        }
+    }
+
+    public synchronized void markArchived(Collection<String> fileNames, String archiveName) {
+        for (String fileName : fileNames) {
+            DemoCatalogEntry entry = entries.get(fileName);
+            if (entry != null) {
+                put(entry.withArchiveName(archiveName).withArchiveTier(ArchiveTier.HOT));
+            }
+        }
+    }
+
+    public synchronized void markArchiveTier(String archiveName, ArchiveTier archiveTier) {
+        for (DemoCatalogEntry entry : entries.values()) {
+            if (archiveName.equals(entry.archiveName()) && entry.archiveTier() != archiveTier) {
+                put(entry.withArchiveTier(archiveTier));
+            }
+        }
+    }
+
+    /**
+     * Forgets a deleted archive. Demos of the archive that still have a copy in the latest directory stay in the
+     * catalog as unarchived demos until that copy is deleted as well.
+     */
+    public synchronized void removeArchive(String archiveName) {
+        for (DemoCatalogEntry entry : List.copyOf(entries.values())) {
+            if (archiveName.equals(entry.archiveName())) {
+                if (entry.inLatest()) {
+                    put(entry.withArchiveName(null).withArchiveTier(ArchiveTier.HOT));
+                } else {
+                    remove(entry.fileName());
+                }
+            }
+        }
+    }
+
+    public synchronized void remove(String fileName) {
+        if (entries.remove(fileName) != null) {
+            JsonObject json = new JsonObject();
+            json.addProperty("fileName", fileName);
+            json.addProperty("removed", true);
+            append(json);
+            flush();
+        }
+    }
+
+    /**
+     * Returns the demos matching all given criteria, newest first. Null criteria match every demo. The map name
+     * matches case-insensitively, either in full or without the workshop prefix ({@code workshop/<id>/}).
+     */
+    public List<DemoCatalogEntry> find(String mapName, String serverId, Long fromEpochSecond, Long toEpochSecond) {
+        return entries.values().stream()
+                .filter(entry -> mapName == null || matchesMap(entry.mapName(), mapName))
+                .filter(entry -> serverId == null || serverId.equals(entry.serverId()))
+                .filter(entry -> fromEpochSecond == null || entry.recordedAt() >= fromEpochSecond)
+                .filter(entry -> toEpochSecond == null || entry.recordedAt() < toEpochSecond)
+                .sorted(Comparator.comparingLong(DemoCatalogEntry::recordedAt).reversed())
+                .toList();
+    }
+
+    private static boolean matchesMap(String entryMap, String mapName) {
+        if (entryMap == null) {
+            return false;
+        }
+        return entryMap.equalsIgnoreCase(mapName) || entryMap.substring(entryMap.lastIndexOf('/') + 1).equalsIgnoreCase(mapName);
+    }
+
+    private synchronized void put(DemoCatalogEntry entry) {
+        entries.put(entry.fileName(), entry);
+        append(toJson(entry));
+        if (raiseHighestArchiveNumber(entry.archiveName())) {
+            append(highestArchiveNumberJson());
+        }
+        flush();
+    }
+
+    private boolean raiseHighestArchiveNumber(String archiveName) {
+        Matcher matcher = archiveName == null ? null : ARCHIVE_NAME.matcher(archiveName);
+        if (matcher == null || !matcher.matches()) {
+            return false;
+        }
+        long archiveNumber = Long.parseLong(matcher.group(1));
+        if (archiveNumber <= highestArchiveNumber) {
+            return false;
+        }
+        highestArchiveNumber = archiveNumber;
+        return true;
+    }
+
+    private JsonObject highestArchiveNumberJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("highestArchiveNumber", highestArchiveNumber);
+        return json;
+    }
+
+    private void append(JsonObject json) {
+        try {
+            journalWriter.write(json.toString());
+            journalWriter.newLine();
+            journalLines++;
+        } catch (IOException e) {
+            logger.error("Failed to write to the demo catalog journal, the change is lost on restart.", e);
+        }
+    }
+
+    private synchronized void flush() {
+        try {
+            journalWriter.flush();
+            if (journalLines > Math.max(MIN_LINES_BEFORE_COMPACTION, entries.size() * 2)) {
+                journalWriter.close();
+                try {
+                    compact();
+                } finally {
+                    // a failed compaction leaves the old journal in place, later changes must still be appended to it
+                    journalWriter = Files.newBufferedWriter(journal, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Failed to flush the demo catalog journal.", e);
+        }
+    }
+
+    private void replayJournal() throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(journal, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                journalLines++;
+                try {
+                    JsonObject json = JsonParser.parseString(line).getAsJsonObject();
+                    if (json.has("highestArchiveNumber")) {
+                        highestArchiveNumber = Math.max(highestArchiveNumber, json.get("highestArchiveNumber").getAsLong());
+                        continue;
+                    }
+                    String fileName = json.get("fileName").getAsString();
+                    if (json.has("removed")) {
+                        entries.remove(fileName);
+                    } else {
+                        DemoCatalogEntry entry = fromJson(json);
+                        entries.put(fileName, entry);
+                        // journals written before the number was recorded still know it from their entries
+                        raiseHighestArchiveNumber(entry.archiveName());
+                    }
+                } catch (Exception e) {
+                    // most likely the last line of a journal that was cut off by a crash
+                    logger.warn("Ignoring unreadable demo catalog line: {}", line, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Rewrites the journal with one line per entry, atomically replacing the old journal.
+     */
+    private void compact() throws IOException {
+        Path temp = journal.resolveSibling(JOURNAL_FILE + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (DemoCatalogEntry entry : entries.values()) {
+                writer.write(toJson(entry).toString());
+                writer.newLine();
+            }
+            writer.write(highestArchiveNumberJson().toString());
+            writer.newLine();
+        }
+        Files.move(temp, journal, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logger.info("Compacted the demo catalog journal from {} to {} lines.", journalLines, entries.size() + 1);
+        journalLines = entries.size() + 1;
+    }
+
+    private static JsonObject toJson(DemoCatalogEntry entry) {
+        JsonObject json = new JsonObject();
+        json.addProperty("fileName", entry.fileName());
+        json.addProperty("serverId", entry.serverId());
+        json.addProperty("recordedAt", entry.recordedAt());
+        json.addProperty("sizeBytes", entry.sizeBytes());
+        json.addProperty("mapName", entry.mapName());
+        json.addProperty("serverName", entry.serverName());
+        json.addProperty("durationSeconds", entry.durationSeconds());
+        json.addProperty("ticks", entry.ticks());
+        json.addProperty("archiveName", entry.archiveName());
+        json.addProperty("archiveTier", entry.archiveTier().name());
+        json.addProperty("inLatest", entry.inLatest());
+        return json;
+    }
+
+    private static DemoCatalogEntry fromJson(JsonObject json) {
+        return new DemoCatalogEntry(
+                json.get("fileName").getAsString(),
+                getString(json, "serverId"),
+                json.get("recordedAt").getAsLong(),
+                json.get("sizeBytes").getAsLong(),
+                getString(json, "mapName"),
+                getString(json, "serverName"),
+                json.get("durationSeconds").getAsDouble(),
+                json.get("ticks").getAsInt(),
+                getString(json, "archiveName"),
+                json.has("archiveTier") ? ArchiveTier.valueOf(json.get("archiveTier").getAsString()) : ArchiveTier.HOT,
+                json.get("inLatest").getAsBoolean());
+    }
+
+    private static String getString(JsonObject json, String member) {
+        JsonElement element = json.get(member);
+        return element == null || element.isJsonNull() ? null : element.getAsString();
+    }
+}
@@ -0,0 +1,31 @@
+package at.emielregis.dathostdemomanager.catalog;
+
+/**
+ * A demo known to the {@link DemoCatalog}. {@code recordedAt} is the epoch second parsed from the file name, the
+ * header fields are null / 0 if the header could not be read. {@code archiveName} is null while the demo is not
+ * archived (it is then in the local directory) and the name of the zip file once it was archived; the tier tells
+ * where that zip file is.
+ */
+public record DemoCatalogEntry(String fileName, String serverId, long recordedAt, long sizeBytes, String mapName,
+                               String serverName, double durationSeconds, int ticks, String archiveName,
+                               ArchiveTier archiveTier, boolean inLatest) {
+
+    public DemoCatalogEntry withInLatest(boolean inLatest) {
+        return new DemoCatalogEntry(fileName, serverId, recordedAt, sizeBytes, mapName, serverName, durationSeconds,
+                ticks, archiveName, archiveTier, inLatest);
+    }
+
+    public DemoCatalogEntry withArchiveName(String archiveName) {
+        return new DemoCatalogEntry(fileName, serverId, recordedAt, sizeBytes, mapName, serverName, durationSeconds,
+                ticks, archiveName, archiveTier, inLatest);
+    }
+
+    public DemoCatalogEntry withArchiveTier(ArchiveTier archiveTier) {
+        return new DemoCatalogEntry(fileName, serverId, recordedAt, sizeBytes, mapName, serverName, durationSeconds,
+                ticks, archiveName, archiveTier, inLatest);
+    }
+
+    public boolean isArchived() {
+        return archiveName != null;
+    }
+}
@@ -0,0 +1,8 @@
+package at.emielregis.dathostdemomanager.catalog;
+
+/**
+ * Metadata read from the header of a demo file. Duration and ticks are 0 if the demo was not finalized by the
+ * server, e.g. because it crashed while recording.
+ */
+public record DemoHeader(String mapName, String serverName, double durationSeconds, int ticks) {
+}
@@ -0,0 +1,243 @@
+package at.emielregis.dathostdemomanager.catalog;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+
+/**
+ * Reads the header of CS2 ({@code PBDEMS2}) and CS:GO ({@code HL2DEMO}) demo files. Only the few kilobytes that
+ * hold the header and the file info are memory-mapped, the rest of the demo is never read.
+ */
+public final class DemoHeaderParser {
+
+    private static final byte[] SOURCE2_MAGIC = "PBDEMS2\0".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SOURCE1_MAGIC = "HL2DEMO\0".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int SOURCE1_HEADER_SIZE = 1072;
+    private static final int SOURCE1_STRING_SIZE = 260;
+
+    private static final int DEM_FILE_HEADER = 1;
+    private static final int DEM_FILE_INFO = 2;
+    private static final int DEM_IS_COMPRESSED = 64;
+
+    // a message header is at most three 5 byte varints
+    private static final int MAX_MESSAGE_HEADER_SIZE = 15;
+    private static final int MAX_MESSAGE_SIZE = 1024 * 1024;
+
+    private DemoHeaderParser() {
+    }
+
+    /**
+     * Returns the header of the demo, or an empty optional if the file is not a demo or its header is malformed.
+     */
+    public static Optional<DemoHeader> parse(Path demo) throws IOException {
+        try (FileChannel channel = FileChannel.open(demo, StandardOpenOption.READ)) {
+            long size = channel.size();
+            // both formats have at least a 16 byte preamble
+            if (size < 16) {
+                return Optional.empty();
+            }
+            ByteBuffer magic = map(channel, 0, SOURCE2_MAGIC.length);
+            if (startsWith(magic, SOURCE2_MAGIC)) {
+                return parseSource2(channel, size);
+            }
+            if (startsWith(magic, SOURCE1_MAGIC) && size >= SOURCE1_HEADER_SIZE) {
+                return Optional.of(parseSource1(map(channel, 0, SOURCE1_HEADER_SIZE)));
+            }
+            return Optional.empty();
+        } catch (BufferUnderflowException | IllegalArgumentException | IllegalStateException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * CS2 demos start with the magic, the offset of the file info message and the offset of the spawn groups,
+     * followed by a stream of protobuf messages of which the first one is the file header.
+     */
+    private static Optional<DemoHeader> parseSource2(FileChannel channel, long size) throws IOException {
+        ByteBuffer offsets = map(channel, 8, 8).order(ByteOrder.LITTLE_ENDIAN);
+        long fileInfoOffset = Integer.toUnsignedLong(offsets.getInt());
+
+        ByteBuffer header = readMessage(channel, 16, size, DEM_FILE_HEADER);
+        if (header == null) {
+            return Optional.empty();
+        }
+        String mapName = null;
+        String serverName = null;
+        ProtobufReader reader = new ProtobufReader(header);
+        while (reader.hasNext()) {
+            int field = reader.nextField();
+            switch (field) {
+                case 3 -> serverName = reader.readString();
+                case 5 -> mapName = reader.readString();
+                default -> reader.skip();
+            }
+        }
+        if (mapName == null) {
+            return Optional.empty();
+        }
+
+        double durationSeconds = 0;
+        int ticks = 0;
+        ByteBuffer fileInfo = fileInfoOffset > 16 ? readMessage(channel, fileInfoOffset, size, DEM_FILE_INFO) : null;
+        if (fileInfo != null) {
+            reader = new ProtobufReader(fileInfo);
+            while (reader.hasNext()) {
+                int field = reader.nextField();
+                switch (field) {
+                    case 1 -> durationSeconds = reader.readFloat();
+                    case 2 -> ticks = (int) reader.readVarint();
+                    default -> reader.skip();
+                }
+            }
+        }
+        return Optional.of(new DemoHeader(mapName, serverName, durationSeconds, ticks));
+    }
+
+    /**
+     * Maps the payload of the message at the given offset, or returns null if it is not the expected, uncompressed
+     * message.
+     */
+    private static ByteBuffer readMessage(FileChannel channel, long offset, long size, int expectedCommand) throws IOException {
+        if (offset >= size) {
+            return null;
+        }
+        ByteBuffer messageHeader = map(channel, offset, (int) Math.min(MAX_MESSAGE_HEADER_SIZE, size - offset));
+        int command = (int) ProtobufReader.readVarint(messageHeader);
+        ProtobufReader.readVarint(messageHeader); // tick
+        long payloadSize = ProtobufReader.readVarint(messageHeader);
+        if ((command & ~DEM_IS_COMPRESSED) != expectedCommand || (command & DEM_IS_COMPRESSED) != 0) {
+            return null;
+        }
+        long payloadOffset = offset + messageHeader.position();
+        if (payloadSize > MAX_MESSAGE_SIZE || payloadOffset + payloadSize > size) {
+            return null;
+        }
+        return map(channel, payloadOffset, (int) payloadSize);
+    }
+
+    /**
+     * CS:GO demos have a fixed size header: magic, demo protocol, network protocol, four 260 byte strings
+     * (server, client, map, game directory), playback time, ticks, frames and the sign on length.
+     */
+    private static DemoHeader parseSource1(ByteBuffer header) {
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        header.position(SOURCE1_MAGIC.length + 8);
+        String serverName = readFixedString(header);
+        readFixedString(header); // client name
+        String mapName = readFixedString(header);
+        readFixedString(header); // game directory
+        float durationSeconds = header.getFloat();
+        int ticks = header.getInt();
+        return new DemoHeader(mapName, serverName, durationSeconds, ticks);
+    }
+
+    private static String readFixedString(ByteBuffer buffer) {
+        byte[] bytes = new byte[SOURCE1_STRING_SIZE];
+        buffer.get(bytes);
+        int length = 0;
+        while (length < bytes.length && bytes[length] != 0) {
+            length++;
+        }
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private static boolean startsWith(ByteBuffer buffer, byte[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer.get(i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long offset, int length) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+    }
+
+    /**
+     * Just enough of the protobuf wire format to read the scalar and string fields of the demo header messages.
+     */
+    private static final class ProtobufReader {
+
+        private final ByteBuffer buffer;
+        private int wireType;
+
+        ProtobufReader(ByteBuffer buffer) {
+            this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        boolean hasNext() {
+            return buffer.hasRemaining();
+        }
+
+        int nextField() {
+            long key = readVarint(buffer);
+            wireType = (int) (key & 0x7);
+            return (int) (key >>> 3);
+        }
+
+        long readVarint() {
+            return readVarint(buffer);
+        }
+
+        float readFloat() {
+            if (wireType != 5) {
+                skip();
+                return 0;
+            }
+            return buffer.getFloat();
+        }
+
+        String readString() {
+            if (wireType != 2) {
+                skip();
+                return null;
+            }
+            byte[] bytes = new byte[readLength()];
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        void skip() {
+            switch (wireType) {
+                case 0 -> readVarint(buffer);
+                case 1 -> buffer.position(buffer.position() + 8);
+                case 2 -> {
+                    int length = readLength();
+                    buffer.position(buffer.position() + length);
+                }
+                case 5 -> buffer.position(buffer.position() + 4);
+                default -> throw new IllegalStateException("Unsupported protobuf wire type: " + wireType);
+            }
+        }
+
+        // a corrupted length must not be used to allocate or skip past the end of the message
+        private int readLength() {
+            long length = readVarint(buffer);
+            if (length < 0 || length > buffer.remaining()) {
+                throw new IllegalStateException("Malformed field length " + length + ", " + buffer.remaining() + " bytes left");
+            }
+            return (int) length;
+        }
+
+        static long readVarint(ByteBuffer buffer) {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = buffer.get();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalStateException("Malformed varint");
+        }
+    }
+}
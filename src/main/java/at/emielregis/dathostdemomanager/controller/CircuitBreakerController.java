@@ -0,0 +1,25 @@
+package at.emielregis.dathostdemomanager.controller;
+
+import at.emielregis.dathostdemomanager.resilience.CircuitBreaker;
+import at.emielregis.dathostdemomanager.resilience.CircuitBreakerRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+@RestController
+public class CircuitBreakerController {
+
+    @Autowired
+    private CircuitBreakerRegistry circuitBreakerRegistry;
+
+    /**
+     * State, failure counts and last failure of the FTP and DatHost circuit breaker of every server that has been
+     * contacted since the start.
+     */
+    @GetMapping("/api/circuit-breakers")
+    public List<CircuitBreaker.Snapshot> getCircuitBreakers() {
+        return circuitBreakerRegistry.snapshots();
+    }
+}
@@ -0,0 +1,46 @@
+package at.emielregis.dathostdemomanager.controller;
+
+import at.emielregis.dathostdemomanager.catalog.DemoCatalog;
+import at.emielregis.dathostdemomanager.catalog.DemoCatalogEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+
+@RestController
+public class DemoCatalogController {
+
+    private static final Logger logger = LoggerFactory.getLogger(DemoCatalogController.class);
+
+    @Autowired
+    private DemoCatalog demoCatalog;
+
+    /**
+     * Searches the demo catalog, e.g. {@code /api/demos?map=de_dust2&serverId=abc&days=7} for all de_dust2 demos
+     * of a server from the last week. Times are in UTC, like the dates in the demo file names; {@code days} is
+     * ignored if {@code from} is given.
+     */
+    @GetMapping("/api/demos")
+    public List<DemoCatalogEntry> findDemos(@RequestParam(required = false) String map,
+                                            @RequestParam(required = false) String serverId,
+                                            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+                                            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+                                            @RequestParam(required = false) Integer days) {
+        if (from == null && days != null) {
+            from = LocalDateTime.now(ZoneOffset.UTC).minusDays(days);
+        }
+        Long fromEpochSecond = from == null ? null : from.toEpochSecond(ZoneOffset.UTC);
+        Long toEpochSecond = to == null ? null : to.toEpochSecond(ZoneOffset.UTC);
+
+        List<DemoCatalogEntry> demos = demoCatalog.find(map, serverId, fromEpochSecond, toEpochSecond);
+        logger.info("Demo catalog query map={} serverId={} from={} to={} returned {} demos.", map, serverId, from, to, demos.size());
+        return demos;
+    }
+}
@@ -0,0 +1,87 @@
+package at.emielregis.dathostdemomanager.controller;
+
+import at.emielregis.dathostdemomanager.download.ByteRange;
+import at.emielregis.dathostdemomanager.download.DemoDownloadService;
+import at.emielregis.dathostdemomanager.download.DemoSource;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.util.Optional;
+
+@RestController
+public class DemoDownloadController {
+
+    private static final Logger logger = LoggerFactory.getLogger(DemoDownloadController.class);
+
+    // request attributes of Tomcat's sendfile support, the connector sends the file region after the handler returns
+    private static final String SENDFILE_SUPPORTED = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    @Autowired
+    private DemoDownloadService demoDownloadService;
+
+    /**
+     * Downloads a demo by file name from the latest directory, the local directory or the archives. Supports single
+     * range requests, so interrupted downloads can be resumed. Uncompressed data is sent with sendfile where the
+     * connector supports it.
+     */
+    @GetMapping("/api/demos/{fileName}")
+    public void downloadDemo(@PathVariable String fileName, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Optional<DemoSource> located = demoDownloadService.locate(fileName);
+        if (located.isEmpty()) {
+            logger.warn("Demo {} requested for download was not found.", fileName);
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        DemoSource source = located.get();
+        long contentLength = source.contentLength();
+
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment().filename(fileName).build().toString());
+
+        long start = 0;
+        long count = contentLength;
+        Optional<ByteRange> range = ByteRange.parse(request.getHeader(HttpHeaders.RANGE), contentLength);
+        if (range.isPresent()) {
+            if (!range.get().isSatisfiable(contentLength)) {
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + contentLength);
+                response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+            start = range.get().start();
+            count = range.get().length();
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + range.get().end() + "/" + contentLength);
+        }
+        response.setContentLengthLong(count);
+
+        if ("HEAD".equals(request.getMethod()) || count == 0) {
+            return;
+        }
+
+        if (!source.deflated() && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED))) {
+            request.setAttribute(SENDFILE_FILENAME, source.file().toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, source.offset() + start);
+            request.setAttribute(SENDFILE_END, source.offset() + start + count);
+            logger.info("Sending {} bytes of demo {} from {} with sendfile.", count, fileName, source.file().getFileName());
+            return;
+        }
+
+        logger.info("Streaming {} bytes of demo {} from {}{}.", count, fileName, source.file().getFileName(),
+                source.deflated() ? " (inflating)" : "");
+        demoDownloadService.transfer(source, start, count, response.getOutputStream());
+    }
+}
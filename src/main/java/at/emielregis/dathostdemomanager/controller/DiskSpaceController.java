@@ -0,0 +1,25 @@
+package at.emielregis.dathostdemomanager.controller;
+
+import at.emielregis.dathostdemomanager.storage.DiskSpaceAdmissionController;
+import at.emielregis.dathostdemomanager.storage.DiskSpaceAdmissionController.StoreMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+@RestController
+public class DiskSpaceController {
+
+    @Autowired
+    private DiskSpaceAdmissionController diskSpaceAdmissionController;
+
+    /**
+     * Usable space, outstanding reservations and granted / denied reservation counts of every file store the
+     * harvester has written to since the start.
+     */
+    @GetMapping("/api/disk-space")
+    public List<StoreMetrics> getDiskSpace() {
+        return diskSpaceAdmissionController.metrics();
+    }
+}
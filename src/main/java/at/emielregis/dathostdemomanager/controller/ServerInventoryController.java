@@ -0,0 +1,27 @@
+package at.emielregis.dathostdemomanager.controller;
+
+import at.emielregis.dathostdemomanager.ftp.ServerInventory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.Instant;
+import java.util.List;
+
+@RestController
+public class ServerInventoryController {
+
+    @Autowired
+    private ServerInventory serverInventory;
+
+    public record InventoryResponse(String source, Instant loadedAt, List<ServerInventory.ServerInfo> servers) {
+    }
+
+    /**
+     * The servers that are currently harvested and where the list was loaded from. Credentials are not included.
+     */
+    @GetMapping("/api/servers")
+    public InventoryResponse getServers() {
+        return new InventoryResponse(serverInventory.getSource(), serverInventory.getLoadedAt(), serverInventory.serverInfos());
+    }
+}
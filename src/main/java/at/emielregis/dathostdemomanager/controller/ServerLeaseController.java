@@ -0,0 +1,21 @@
+package at.emielregis.dathostdemomanager.controller;
+
+import at.emielregis.dathostdemomanager.sharding.ServerLeaseManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+public class ServerLeaseController {
+
+    @Autowired
+    private ServerLeaseManager serverLeaseManager;
+
+    /**
+     * The servers this instance holds, its fair share and the owner and expiry of every lease in the shared directory.
+     */
+    @GetMapping("/api/leases")
+    public ServerLeaseManager.LeaseStatus getLeases() {
+        return serverLeaseManager.status();
+    }
+}
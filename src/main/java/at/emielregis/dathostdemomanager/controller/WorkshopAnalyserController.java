@@ -1,174 +1,152 @@
 package at.emielregis.dathostdemomanager.controller;
 
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+import at.emielregis.dathostdemomanager.workshop.ImageFetchPipeline;
+import at.emielregis.dathostdemomanager.workshop.ImageFetchPipeline.ImageFetchReport;
+import at.emielregis.dathostdemomanager.workshop.ImageFetchPipeline.ImageFetchResult;
+import at.emielregis.dathostdemomanager.workshop.PublishedMap;
+import at.emielregis.dathostdemomanager.workshop.SteamResponseParser;
+import at.emielregis.dathostdemomanager.workshop.WorkshopMetadataCache;
 import okhttp3.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.URL;
-import java.nio.channels.Channels;
-import java.nio.channels.ReadableByteChannel;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 @RestController
 public class WorkshopAnalyserController {
 
-    private enum MapType {
-        HOSTAGE,
-        DEFUSAL,
-        UNKNOWN
-    }
+    @Value("${settings.workshop-details-batch-size}")
+    private int detailsBatchSize;
 
-    @Value("${settings.workshop-image-path}")
-    private String workshopImagePath;
+    @Autowired
+    private OkHttpClient httpClient;
 
-    private static final Logger logger = LoggerFactory.getLogger(WorkshopAnalyserController.class);
+    @Autowired
+    private WorkshopMetadataCache metadataCache;
 
-    private record PublishedMap(String name, String id, int subscriptions, int lifetimeSubscriptions,
-                                int lifetimeFavorites, MapType mapType, String previewUrl) {
-    }
+    @Autowired
+    private ImageFetchPipeline imageFetchPipeline;
+
+    private static final Logger logger = LoggerFactory.getLogger(WorkshopAnalyserController.class);
 
     @GetMapping("/api/collection/download")
     public Map<String, Object> downloadCollectionImages(@RequestParam String collectionId) {
         logger.info("Starting to download collection images for collectionId: {}", collectionId);
-        String[] ids = getPublishedMapIdsForCollection(collectionId);
-        List<PublishedMap> mapList = new ArrayList<>();
-        List<String> unparsedIds = new ArrayList<>();
+        long startNanos = System.nanoTime();
+        List<String> ids = getPublishedMapIdsForCollection(collectionId);
+        // maps arrive from the cache and from the batches in any order, they are reported in the order of the collection
+        Map<String, PublishedMap> maps = new HashMap<>();
+        Map<String, CompletableFuture<ImageFetchResult>> imageDownloads = new HashMap<>();
 
+        List<String> uncachedIds = new ArrayList<>();
         for (String id : ids) {
-            PublishedMap map = getPublishedMapForId(id);
+            Optional<PublishedMap> cached = metadataCache.get(id);
+            if (cached.isPresent()) {
+                logger.info("Using cached details for map id: {}", id);
+                maps.put(id, cached.get());
+                imageDownloads.computeIfAbsent(id, mapId -> imageFetchPipeline.submit(collectionId, cached.get()));
+            } else {
+                uncachedIds.add(id);
+            }
+        }
+
+        for (int i = 0; i < uncachedIds.size(); i += detailsBatchSize) {
+            List<String> batch = uncachedIds.subList(i, Math.min(i + detailsBatchSize, uncachedIds.size()));
+            getPublishedMaps(batch, map -> {
+                logger.info("Parsed map: {} (id: {})", map.name(), map.id());
+                metadataCache.put(map);
+                maps.put(map.id(), map);
+                imageDownloads.computeIfAbsent(map.id(), mapId -> imageFetchPipeline.submit(collectionId, map));
+            }, id -> logger.warn("Failed to parse map with id: {}", id));
+        }
+
+        List<PublishedMap> mapList = new ArrayList<>();
+        List<String> unparsedIds = new ArrayList<>();
+        List<CompletableFuture<ImageFetchResult>> orderedDownloads = new ArrayList<>();
+        for (String id : new LinkedHashSet<>(ids)) {
+            PublishedMap map = maps.get(id);
             if (map != null) {
-                try {
-                    downloadImage(map.previewUrl(), map.name(), map.mapType().toString());
-                    logger.info("Downloaded image for map: {}", map.name());
-                } catch (IOException e) {
-                    logger.error("Failed to download image for map: {}", map.name(), e);
-                }
                 mapList.add(map);
+                orderedDownloads.add(imageDownloads.get(id));
             } else {
                 unparsedIds.add(id);
-                logger.warn("Failed to parse map with id: {}", id);
             }
         }
 
+        ImageFetchReport imageReport = imageFetchPipeline.awaitAll(orderedDownloads, startNanos);
+
         Map<String, Object> response = new HashMap<>();
         response.put("maps", mapList);
         response.put("unparsedIds", unparsedIds);
+        response.put("imageStats", imageReport);
+
+        metadataCache.evict();
 
         logger.info("Download process completed. Parsed {} maps, {} maps could not be parsed.", mapList.size(), unparsedIds.size());
         return response;
     }
 
-    private String[] getPublishedMapIdsForCollection(String id) {
-        OkHttpClient client = new OkHttpClient();
+    private List<String> getPublishedMapIdsForCollection(String id) {
         String url = "https://api.steampowered.com/ISteamRemoteStorage/GetCollectionDetails/v1/?format=json";
         RequestBody formBody = new FormBody.Builder()
                 .add("collectioncount", "1")
                 .add("publishedfileids[0]", id)
                 .build();
         Request request = new Request.Builder().url(url).post(formBody).build();
-        try (Response response = client.newCall(request).execute()) {
+        try (Response response = httpClient.newCall(request).execute()) {
             if (!response.isSuccessful()) throw new IOException("Unexpected code " + response);
-            String responseData = response.body().string();
             logger.info("Successfully retrieved collection details for collectionId: {}", id);
-            return parseIds(responseData);
+            List<String> publishedFileIds = new ArrayList<>();
+            SteamResponseParser.parseCollectionChildren(response.body().charStream(), publishedFileIds::add);
+            logger.info("Parsed {} published file IDs from collection details.", publishedFileIds.size());
+            return publishedFileIds;
         } catch (Exception e) {
             logger.error("Failed to retrieve collection details for collectionId: {}", id, e);
             throw new IllegalStateException("Unable to retrieve collection details", e);
         }
     }
 
-    private String[] parseIds(String responseData) {
-        JsonObject jsonObject = JsonParser.parseString(responseData).getAsJsonObject();
-        JsonArray childrenArray = jsonObject.getAsJsonObject("response")
-                .getAsJsonArray("collectiondetails")
-                .get(0).getAsJsonObject()
-                .getAsJsonArray("children");
-        String[] publishedFileIds = new String[childrenArray.size()];
-        for (int i = 0; i < childrenArray.size(); i++) {
-            JsonElement child = childrenArray.get(i);
-            publishedFileIds[i] = child.getAsJsonObject().get("publishedfileid").getAsString();
-        }
-        logger.info("Parsed {} published file IDs from collection details.", publishedFileIds.length);
-        return publishedFileIds;
-    }
-
-    private PublishedMap getPublishedMapForId(String id) {
-        OkHttpClient client = new OkHttpClient();
+    /**
+     * Fetches the details of all given maps with a single request. Maps are handed to the consumer while the
+     * response is still being read, ids that could not be parsed or fetched are handed to the unparsed consumer.
+     */
+    private void getPublishedMaps(List<String> ids, Consumer<PublishedMap> mapConsumer, Consumer<String> unparsedConsumer) {
         String url = "https://api.steampowered.com/ISteamRemoteStorage/GetPublishedFileDetails/v1/?format=json";
-        RequestBody formBody = new FormBody.Builder()
-                .add("itemcount", "1")
-                .add("publishedfileids[0]", id)
-                .build();
-        Request request = new Request.Builder().url(url).post(formBody).build();
-        try (Response response = client.newCall(request).execute()) {
+        FormBody.Builder formBody = new FormBody.Builder().add("itemcount", String.valueOf(ids.size()));
+        for (int i = 0; i < ids.size(); i++) {
+            formBody.add("publishedfileids[" + i + "]", ids.get(i));
+        }
+        Request request = new Request.Builder().url(url).post(formBody.build()).build();
+        Set<String> remainingIds = new HashSet<>(ids);
+        try (Response response = httpClient.newCall(request).execute()) {
             if (!response.isSuccessful()) throw new IOException("Unexpected code " + response);
-            String responseData = response.body().string();
-            logger.info("Successfully retrieved details for map id: {}", id);
-            return parsePublishedMap(responseData, id);
+            logger.info("Successfully retrieved details for {} map ids.", ids.size());
+            SteamResponseParser.parsePublishedFileDetails(response.body().charStream(), map -> {
+                remainingIds.remove(map.id());
+                mapConsumer.accept(map);
+            }, id -> {
+                remainingIds.remove(id);
+                unparsedConsumer.accept(id);
+            });
         } catch (Exception e) {
-            logger.error("Failed to retrieve details for map id: {}", id, e);
-            return null;
-        }
-    }
-
-    private PublishedMap parsePublishedMap(String responseData, String id) {
-        JsonObject jsonObject = JsonParser.parseString(responseData).getAsJsonObject();
-        JsonObject details = jsonObject.getAsJsonObject("response")
-                .getAsJsonArray("publishedfiledetails")
-                .get(0).getAsJsonObject();
-        if (!details.has("title")) {
-            logger.warn("Could not parse map with id: {}", id);
-            return null;
-        }
-        String name = details.get("title").getAsString();
-        int subscriptions = details.get("subscriptions").getAsInt();
-        int lifetimeSubscriptions = details.get("lifetime_subscriptions").getAsInt();
-        int lifetimeFavorites = details.get("lifetime_favorited").getAsInt();
-        String previewUrl = details.get("preview_url").getAsString();
-        boolean isHostage = details.get("description").getAsString().toLowerCase().contains("hostage");
-        boolean isDefusal = details.get("description").getAsString().toLowerCase().contains("defusal");
-        MapType type;
-        if (isHostage && isDefusal || (!isHostage && !isDefusal)) {
-            type = MapType.UNKNOWN;
-        } else if (isHostage) {
-            type = MapType.HOSTAGE;
-        } else {
-            type = MapType.DEFUSAL;
-        }
-        logger.info("Parsed map: {} (id: {})", name, id);
-        return new PublishedMap(name, id, subscriptions, lifetimeSubscriptions, lifetimeFavorites, type, previewUrl);
-    }
-
-    private void downloadImage(String imageUrl, String fileName, String tag) throws IOException {
-        URL url = new URL(imageUrl);
-        InputStream in = url.openStream();
-        try (ReadableByteChannel rbc = Channels.newChannel(in)) {
-            File directory = new File(workshopImagePath);
-            if (!directory.exists()) {
-                directory.mkdirs();
-                logger.info("Created directory: {}", workshopImagePath);
-            }
-            String sanitizedFileName = fileName.replaceAll("[\\\\/:*?\"<>|]", "_");
-            sanitizedFileName = sanitizedFileName + " (" + tag + ")";
-            try (FileOutputStream fos = new FileOutputStream(new File(directory, sanitizedFileName + ".png"))) {
-                fos.getChannel().transferFrom(rbc, 0, Long.MAX_VALUE);
-                logger.info("Image saved as: {}", sanitizedFileName + ".png");
-            }
+            logger.error("Failed to retrieve details for map ids: {}", remainingIds, e);
         }
+        // ids missing from the response are reported as unparsed, just like items without details
+        remainingIds.forEach(unparsedConsumer);
     }
 }
@@ -1,13 +1,25 @@
 package at.emielregis.dathostdemomanager.dathost;
 
+import at.emielregis.dathostdemomanager.resilience.CircuitBreakerRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.*;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 
+import java.time.Duration;
 import java.util.Base64;
 import java.util.Map;
 
+/**
+ * Calls of the DatHost API. Every call except the server start goes through the DatHost circuit breaker of the server
+ * and is retried on connection errors, 429 and 5xx responses; when the breaker is open or the retries are used up a
+ * {@link RestClientException} or {@link at.emielregis.dathostdemomanager.resilience.CircuitOpenException} is thrown.
+ */
 @Component
 public class DatHostServerAccessor {
 
@@ -17,7 +29,28 @@ public class DatHostServerAccessor {
     @Value("${settings.dathost-credentials.password}")
     private String password;
 
-    private final RestTemplate restTemplate = new RestTemplate();
+    @Value("${settings.dathost-api-url}")
+    private String apiUrl;
+
+    @Value("${settings.resilience.connect-timeout-seconds}")
+    private int connectTimeoutSeconds;
+
+    @Value("${settings.resilience.read-timeout-seconds}")
+    private int readTimeoutSeconds;
+
+    @Autowired
+    private CircuitBreakerRegistry circuitBreakerRegistry;
+
+    private RestTemplate restTemplate;
+
+    @PostConstruct
+    public void init() {
+        // without timeouts a hanging api call would never reach the circuit breaker
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(Duration.ofSeconds(connectTimeoutSeconds));
+        requestFactory.setReadTimeout(Duration.ofSeconds(readTimeoutSeconds));
+        restTemplate = new RestTemplate(requestFactory);
+    }
 
     private HttpHeaders createHeaders() {
         HttpHeaders headers = new HttpHeaders();
@@ -28,44 +61,37 @@ public class DatHostServerAccessor {
         return headers;
     }
 
-    public boolean isServerRunning(String serverId) {
-        String url = "https://dathost.net/api/0.1/game-servers/" + serverId;
-        HttpHeaders headers = createHeaders();
-        HttpEntity<String> entity = new HttpEntity<>(headers);
-
-        ResponseEntity<Map> response = restTemplate.exchange(url, HttpMethod.GET, entity, Map.class);
-
-        if (response.getStatusCode() == HttpStatus.OK) {
-            Map<String, Object> body = response.getBody();
-            return body != null && (boolean) body.getOrDefault("on", false);
-        }
-
-        return false;
+    /**
+     * Whether the server is on and how many players are connected (-1 if unknown), read from a single status request.
+     */
+    public record ServerStatus(boolean running, int playersOnline) {
     }
 
-    public int getAmountOfPlayersOnServer(String serverId) {
-        String url = "https://dathost.net/api/0.1/game-servers/" + serverId;
+    public ServerStatus getServerStatus(String serverId) {
+        String url = apiUrl + "/game-servers/" + serverId;
         HttpHeaders headers = createHeaders();
         HttpEntity<String> entity = new HttpEntity<>(headers);
 
-        ResponseEntity<Map> response = restTemplate.exchange(url, HttpMethod.GET, entity, Map.class);
+        ResponseEntity<Map> response = circuitBreakerRegistry.call(CircuitBreakerRegistry.DATHOST, serverId, "server status request",
+                DatHostServerAccessor::isRetryable, () -> restTemplate.exchange(url, HttpMethod.GET, entity, Map.class));
 
         if (response.getStatusCode() == HttpStatus.OK) {
             Map<String, Object> body = response.getBody();
             if (body != null) {
-                return (int) body.getOrDefault("players_online", -1);
+                return new ServerStatus((boolean) body.getOrDefault("on", false), (int) body.getOrDefault("players_online", -1));
             }
         }
 
-        return -1;
+        return new ServerStatus(false, -1);
     }
 
     public boolean shutdownServer(String serverId) {
-        String url = "https://dathost.net/api/0.1/game-servers/" + serverId + "/stop";
+        String url = apiUrl + "/game-servers/" + serverId + "/stop";
         HttpHeaders headers = createHeaders();
         HttpEntity<String> entity = new HttpEntity<>(headers);
 
-        ResponseEntity<Void> response = restTemplate.exchange(url, HttpMethod.POST, entity, Void.class);
+        ResponseEntity<Void> response = circuitBreakerRegistry.call(CircuitBreakerRegistry.DATHOST, serverId, "server stop request",
+                DatHostServerAccessor::isRetryable, () -> restTemplate.exchange(url, HttpMethod.POST, entity, Void.class));
 
         try {
             Thread.sleep(2000);
@@ -77,12 +103,25 @@ public class DatHostServerAccessor {
     }
 
     public boolean startServer(String serverId) {
-        String url = "https://dathost.net/api/0.1/game-servers/" + serverId + "/start";
+        String url = apiUrl + "/game-servers/" + serverId + "/start";
         HttpHeaders headers = createHeaders();
         HttpEntity<String> entity = new HttpEntity<>(headers);
 
-        ResponseEntity<Void> response = restTemplate.exchange(url, HttpMethod.POST, entity, Void.class);
+        // the server was stopped for the map deletion, so starting it must not be skipped because the breaker was
+        // opened by other requests in the meantime; starting is idempotent and only retried
+        ResponseEntity<Void> response = circuitBreakerRegistry.retry(CircuitBreakerRegistry.DATHOST, serverId, "server start request",
+                DatHostServerAccessor::isRetryable, () -> restTemplate.exchange(url, HttpMethod.POST, entity, Void.class));
 
         return response.getStatusCode() == HttpStatus.OK;
     }
+
+    /**
+     * Client errors other than 429 are answers of a healthy API (e.g. an unknown server id), retrying them is futile.
+     */
+    private static boolean isRetryable(Exception e) {
+        if (e instanceof HttpClientErrorException clientError) {
+            return clientError.getStatusCode().value() == 429;
+        }
+        return e instanceof RestClientException;
+    }
 }
@@ -0,0 +1,52 @@
+package at.emielregis.dathostdemomanager.download;
+
+import java.util.Optional;
+
+/**
+ * A single HTTP byte range, {@code start} and {@code end} inclusive.
+ */
+public record ByteRange(long start, long end) {
+
+    /**
+     * Parses a {@code Range} header for content of the given length. Returns an empty optional if there is no
+     * header or it cannot be served as a single range (invalid syntax, other units, multiple ranges), in which
+     * case the whole content is sent, as allowed by RFC 9110.
+     */
+    public static Optional<ByteRange> parse(String header, long length) {
+        if (header == null || !header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+            return Optional.empty();
+        }
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return Optional.empty();
+        }
+        try {
+            if (dash == 0) {
+                long suffixLength = Long.parseLong(spec.substring(1));
+                if (suffixLength < 0) {
+                    return Optional.empty();
+                }
+                // a zero length suffix can never be satisfied
+                return Optional.of(suffixLength == 0 ? new ByteRange(length, length - 1)
+                        : new ByteRange(Math.max(0, length - suffixLength), length - 1));
+            }
+            long start = Long.parseLong(spec.substring(0, dash));
+            long end = dash == spec.length() - 1 ? Long.MAX_VALUE : Long.parseLong(spec.substring(dash + 1));
+            if (start < 0 || end < start) {
+                return Optional.empty();
+            }
+            return Optional.of(new ByteRange(start, Math.min(end, length - 1)));
+        } catch (NumberFormatException e) {
+            return Optional.empty();
+        }
+    }
+
+    public boolean isSatisfiable(long length) {
+        return start < length && start <= end;
+    }
+
+    public long length() {
+        return end - start + 1;
+    }
+}
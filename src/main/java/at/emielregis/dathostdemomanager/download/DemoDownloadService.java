@@ -0,0 +1,213 @@
+package at.emielregis.dathostdemomanager.download;
+
+import at.emielregis.dathostdemomanager.catalog.ArchiveTier;
+import at.emielregis.dathostdemomanager.catalog.DemoCatalog;
+import at.emielregis.dathostdemomanager.catalog.DemoCatalogEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Finds demos for download, either as files in the latest or local directory or as entries of the archive zips,
+ * and copies them to the client without loading them into memory. Parsed zip central directories are cached per
+ * archive until the archive changes.
+ */
+@Component
+public class DemoDownloadService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DemoDownloadService.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Value("${ftp.local.directory}")
+    private String localDirectory;
+
+    @Value("${ftp.local.archive-directory}")
+    private String archiveDirectory;
+
+    @Value("${ftp.local.latest-demos-directory}")
+    private String latestDemosDirectory;
+
+    @Value("${settings.retention.cold.directory}")
+    private String coldDirectory;
+
+    @Autowired
+    private DemoCatalog demoCatalog;
+
+    private final Map<Path, CachedDirectory> directories = new ConcurrentHashMap<>();
+
+    private record CachedDirectory(long lastModified, long size, Map<String, ZipDirectory.Entry> entries) {
+    }
+
+    private record ArchiveIndex(List<Long> directoriesModified, Map<String, Path> archives) {
+    }
+
+    private ArchiveIndex archiveIndex;
+
+    public Optional<DemoSource> locate(String fileName) throws IOException {
+        // only plain file names are served, never anything that could point outside the demo directories
+        if (fileName.isEmpty() || fileName.contains("/") || fileName.contains("\\") || fileName.startsWith(".")) {
+            return Optional.empty();
+        }
+
+        for (String directory : List.of(latestDemosDirectory, localDirectory)) {
+            Path file = Paths.get(directory, fileName);
+            if (Files.isRegularFile(file)) {
+                return Optional.of(DemoSource.ofFile(fileName, file, Files.size(file)));
+            }
+        }
+
+        Optional<DemoCatalogEntry> entry = demoCatalog.get(fileName).filter(DemoCatalogEntry::isArchived);
+        if (entry.isPresent()) {
+            String directory = entry.get().archiveTier() == ArchiveTier.COLD ? coldDirectory : archiveDirectory;
+            Optional<DemoSource> source = locateInArchive(Paths.get(directory, entry.get().archiveName()), fileName);
+            if (source.isPresent()) {
+                return source;
+            }
+        }
+
+        // demos in archives the catalog has not adopted yet are looked up in an index of all archive entry names
+        Path archive = archiveIndex().get(fileName);
+        if (archive != null) {
+            return locateInArchive(archive, fileName);
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Copies {@code count} bytes of the demo, starting at {@code start}, to the output stream. Plain data is sent
+     * with {@link FileChannel#transferTo}, deflated archive entries are inflated on the fly and the bytes before
+     * {@code start} are skipped while inflating.
+     */
+    public void transfer(DemoSource source, long start, long count, OutputStream out) throws IOException {
+        try (FileChannel channel = FileChannel.open(source.file(), StandardOpenOption.READ)) {
+            if (!source.deflated()) {
+                WritableByteChannel target = Channels.newChannel(out);
+                long position = source.offset() + start;
+                long remaining = count;
+                while (remaining > 0) {
+                    long transferred = channel.transferTo(position, remaining, target);
+                    if (transferred <= 0) {
+                        throw new EOFException("Unexpected end of " + source.file());
+                    }
+                    position += transferred;
+                    remaining -= transferred;
+                }
+                return;
+            }
+
+            channel.position(source.offset());
+            Inflater inflater = new Inflater(true);
+            try (InputStream in = new InflaterInputStream(Channels.newInputStream(channel), inflater, BUFFER_SIZE)) {
+                in.skipNBytes(start);
+                byte[] buffer = new byte[BUFFER_SIZE];
+                long remaining = count;
+                while (remaining > 0) {
+                    int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (read < 0) {
+                        throw new EOFException("Unexpected end of entry " + source.fileName() + " in " + source.file());
+                    }
+                    out.write(buffer, 0, read);
+                    remaining -= read;
+                }
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+
+    private Optional<DemoSource> locateInArchive(Path archive, String fileName) throws IOException {
+        if (!Files.isRegularFile(archive)) {
+            directories.remove(archive);
+            return Optional.empty();
+        }
+        ZipDirectory.Entry entry = directoryOf(archive).get(fileName);
+        if (entry == null) {
+            return Optional.empty();
+        }
+        if (entry.method() != ZipDirectory.METHOD_STORED && entry.method() != ZipDirectory.METHOD_DEFLATED) {
+            logger.warn("Cannot serve {} from {}, unsupported compression method {}.", fileName, archive.getFileName(), entry.method());
+            return Optional.empty();
+        }
+        try (FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ)) {
+            long dataOffset = ZipDirectory.dataOffset(channel, entry);
+            return Optional.of(new DemoSource(fileName, archive, dataOffset, entry.compressedSize(),
+                    entry.uncompressedSize(), entry.method() == ZipDirectory.METHOD_DEFLATED));
+        }
+    }
+
+    /**
+     * Maps the entry names of all archives in the hot and cold archive directories to their archive. The index is
+     * built once and only rebuilt after archives were added to or removed from one of the directories, so a request
+     * for an unknown demo does not read every central directory.
+     */
+    private synchronized Map<String, Path> archiveIndex() throws IOException {
+        List<Path> archiveDirectories = List.of(Paths.get(archiveDirectory), Paths.get(coldDirectory));
+        List<Long> directoriesModified = new ArrayList<>();
+        for (Path directory : archiveDirectories) {
+            directoriesModified.add(Files.isDirectory(directory) ? Files.getLastModifiedTime(directory).toMillis() : -1);
+        }
+        ArchiveIndex index = archiveIndex;
+        if (index != null && index.directoriesModified().equals(directoriesModified)) {
+            return index.archives();
+        }
+
+        Map<String, Path> archives = new HashMap<>();
+        for (Path directory : archiveDirectories) {
+            if (!Files.isDirectory(directory)) {
+                continue;
+            }
+            List<Path> zips;
+            try (Stream<Path> paths = Files.list(directory)) {
+                zips = paths.filter(path -> path.getFileName().toString().endsWith(".zip")).toList();
+            }
+            for (Path zip : zips) {
+                try {
+                    for (String name : ZipDirectory.read(zip).keySet()) {
+                        archives.putIfAbsent(name, zip);
+                    }
+                } catch (IOException e) {
+                    logger.warn("Skipping unreadable archive {}: {}", zip.getFileName(), e.getMessage());
+                }
+            }
+        }
+        archiveIndex = new ArchiveIndex(directoriesModified, archives);
+        logger.info("Indexed {} demos in the archive directories.", archives.size());
+        return archives;
+    }
+
+    private Map<String, ZipDirectory.Entry> directoryOf(Path archive) throws IOException {
+        long lastModified = Files.getLastModifiedTime(archive).toMillis();
+        long size = Files.size(archive);
+        CachedDirectory cached = directories.get(archive);
+        if (cached == null || cached.lastModified() != lastModified || cached.size() != size) {
+            cached = new CachedDirectory(lastModified, size, ZipDirectory.read(archive));
+            directories.put(archive, cached);
+            logger.info("Read central directory of archive {} ({} entries).", archive.getFileName(), cached.entries().size());
+        }
+        return cached.entries();
+    }
+}
@@ -0,0 +1,15 @@
+package at.emielregis.dathostdemomanager.download;
+
+import java.nio.file.Path;
+
+/**
+ * Where the bytes of a demo are: {@code length} bytes at {@code offset} of {@code file}. For plain demo files and
+ * stored zip entries these are the demo itself and can be sent with sendfile; for deflated zip entries they are
+ * the compressed data and {@code contentLength} is the size of the demo after inflating.
+ */
+public record DemoSource(String fileName, Path file, long offset, long length, long contentLength, boolean deflated) {
+
+    static DemoSource ofFile(String fileName, Path file, long size) {
+        return new DemoSource(fileName, file, 0, size, size, false);
+    }
+}
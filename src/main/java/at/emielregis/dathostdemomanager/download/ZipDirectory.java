@@ -0,0 +1,159 @@
+package at.emielregis.dathostdemomanager.download;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipException;
+
+/**
+ * Reads the central directory of a zip file without touching the entry data, so single entries can be served
+ * straight out of an archive. Supports ZIP64, which the demo archives need once they grow beyond 4 GB.
+ */
+final class ZipDirectory {
+
+    static final int METHOD_STORED = 0;
+    static final int METHOD_DEFLATED = 8;
+
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+    private static final int CENTRAL_DIRECTORY_HEADER = 0x02014b50;
+    private static final int LOCAL_FILE_HEADER = 0x04034b50;
+
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE = 56;
+    private static final int LOCAL_FILE_HEADER_SIZE = 30;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+    private static final int ZIP64_EXTRA_FIELD = 0x0001;
+
+    /**
+     * An entry of the central directory. {@code localHeaderOffset} points to the local file header, the data
+     * starts after it (see {@link #dataOffset(FileChannel, Entry)}).
+     */
+    record Entry(String name, int method, long compressedSize, long uncompressedSize, long localHeaderOffset) {
+    }
+
+    private ZipDirectory() {
+    }
+
+    static Map<String, Entry> read(Path zip) throws IOException {
+        try (FileChannel channel = FileChannel.open(zip, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int tailSize = (int) Math.min(size, END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_SIZE);
+            ByteBuffer tail = read(channel, size - tailSize, tailSize);
+            int end = findEndOfCentralDirectory(tail);
+
+            long entryCount = Short.toUnsignedInt(tail.getShort(end + 10));
+            long directorySize = Integer.toUnsignedLong(tail.getInt(end + 12));
+            long directoryOffset = Integer.toUnsignedLong(tail.getInt(end + 16));
+
+            long endOffset = size - tailSize + end;
+            if (endOffset >= ZIP64_LOCATOR_SIZE) {
+                ByteBuffer locator = read(channel, endOffset - ZIP64_LOCATOR_SIZE, ZIP64_LOCATOR_SIZE);
+                if (locator.getInt(0) == ZIP64_LOCATOR) {
+                    ByteBuffer zip64End = read(channel, locator.getLong(8), ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE);
+                    if (zip64End.getInt(0) != ZIP64_END_OF_CENTRAL_DIRECTORY) {
+                        throw new ZipException("Invalid ZIP64 end of central directory in " + zip);
+                    }
+                    entryCount = zip64End.getLong(32);
+                    directorySize = zip64End.getLong(40);
+                    directoryOffset = zip64End.getLong(48);
+                }
+            }
+            if (directorySize > Integer.MAX_VALUE || directoryOffset + directorySize > size) {
+                throw new ZipException("Invalid central directory in " + zip);
+            }
+
+            ByteBuffer directory = channel.map(FileChannel.MapMode.READ_ONLY, directoryOffset, directorySize).order(ByteOrder.LITTLE_ENDIAN);
+            Map<String, Entry> entries = new HashMap<>();
+            for (long i = 0; i < entryCount; i++) {
+                Entry entry = readEntry(directory);
+                entries.put(entry.name(), entry);
+            }
+            return entries;
+        }
+    }
+
+    /**
+     * Returns the offset of the first data byte of the entry, which is only known after reading the local header
+     * because its extra field may differ from the one in the central directory.
+     */
+    static long dataOffset(FileChannel channel, Entry entry) throws IOException {
+        ByteBuffer header = read(channel, entry.localHeaderOffset(), LOCAL_FILE_HEADER_SIZE);
+        if (header.getInt(0) != LOCAL_FILE_HEADER) {
+            throw new ZipException("Invalid local file header for entry " + entry.name());
+        }
+        int nameLength = Short.toUnsignedInt(header.getShort(26));
+        int extraLength = Short.toUnsignedInt(header.getShort(28));
+        return entry.localHeaderOffset() + LOCAL_FILE_HEADER_SIZE + nameLength + extraLength;
+    }
+
+    private static int findEndOfCentralDirectory(ByteBuffer tail) throws ZipException {
+        for (int position = tail.limit() - END_OF_CENTRAL_DIRECTORY_SIZE; position >= 0; position--) {
+            if (tail.getInt(position) == END_OF_CENTRAL_DIRECTORY) {
+                return position;
+            }
+        }
+        throw new ZipException("End of central directory not found");
+    }
+
+    private static Entry readEntry(ByteBuffer directory) throws ZipException {
+        int start = directory.position();
+        if (directory.getInt(start) != CENTRAL_DIRECTORY_HEADER) {
+            throw new ZipException("Invalid central directory header at offset " + start);
+        }
+        int method = Short.toUnsignedInt(directory.getShort(start + 10));
+        long compressedSize = Integer.toUnsignedLong(directory.getInt(start + 20));
+        long uncompressedSize = Integer.toUnsignedLong(directory.getInt(start + 24));
+        int nameLength = Short.toUnsignedInt(directory.getShort(start + 28));
+        int extraLength = Short.toUnsignedInt(directory.getShort(start + 30));
+        int commentLength = Short.toUnsignedInt(directory.getShort(start + 32));
+        long localHeaderOffset = Integer.toUnsignedLong(directory.getInt(start + 42));
+
+        byte[] name = new byte[nameLength];
+        directory.get(start + 46, name);
+
+        // values that do not fit into 32 bits are 0xFFFFFFFF and stored in the ZIP64 extra field, in this order
+        int extra = start + 46 + nameLength;
+        int extraEnd = extra + extraLength;
+        while (extra + 4 <= extraEnd) {
+            int id = Short.toUnsignedInt(directory.getShort(extra));
+            int length = Short.toUnsignedInt(directory.getShort(extra + 2));
+            if (id == ZIP64_EXTRA_FIELD) {
+                int field = extra + 4;
+                if (uncompressedSize == 0xFFFFFFFFL) {
+                    uncompressedSize = directory.getLong(field);
+                    field += 8;
+                }
+                if (compressedSize == 0xFFFFFFFFL) {
+                    compressedSize = directory.getLong(field);
+                    field += 8;
+                }
+                if (localHeaderOffset == 0xFFFFFFFFL) {
+                    localHeaderOffset = directory.getLong(field);
+                }
+            }
+            extra += 4 + length;
+        }
+
+        directory.position(extraEnd + commentLength);
+        return new Entry(new String(name, StandardCharsets.UTF_8), method, compressedSize, uncompressedSize, localHeaderOffset);
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new ZipException("Unexpected end of zip file");
+            }
+        }
+        return buffer.flip();
+    }
+}
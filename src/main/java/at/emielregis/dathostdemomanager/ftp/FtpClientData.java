@@ -3,11 +3,13 @@ package at.emielregis.dathostdemomanager.ftp;
 import lombok.Data;
 import lombok.RequiredArgsConstructor;
 import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPFile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
+import java.time.Duration;
 
 @Component
 @Data
@@ -26,12 +28,18 @@ public class FtpClientData {
 
     private final FTPClient ftpClient = new FTPClient();
 
-    public void connect() throws IOException {
+    /**
+     * Connects with the given timeouts, the read timeout applies to the control connection and every data transfer.
+     */
+    public void connect(Duration connectTimeout, Duration readTimeout) throws IOException {
+        ftpClient.setConnectTimeout((int) connectTimeout.toMillis());
+        ftpClient.setDefaultTimeout((int) readTimeout.toMillis());
+        ftpClient.setDataTimeout(readTimeout);
         ftpClient.connect(host, port);
     }
 
-    public void login() throws IOException {
-        ftpClient.login(username, password);
+    public boolean login() throws IOException {
+        return ftpClient.login(username, password);
     }
 
     public boolean changeWorkingDirectory(String targetFolder) throws IOException {
@@ -42,6 +50,10 @@ public class FtpClientData {
         return ftpClient.listNames();
     }
 
+    public FTPFile[] listFiles() throws IOException {
+        return ftpClient.listFiles();
+    }
+
     public void logout() throws IOException {
         ftpClient.logout();
     }
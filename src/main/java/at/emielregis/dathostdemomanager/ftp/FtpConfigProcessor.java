@@ -1,62 +1,58 @@
 package at.emielregis.dathostdemomanager.ftp;
 
 import at.emielregis.dathostdemomanager.dathost.DatHostServerAccessor;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import at.emielregis.dathostdemomanager.sharding.ServerLeaseManager;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import java.util.ArrayList;
-import java.util.List;
-
 @Component
 public class FtpConfigProcessor {
-    private static final Logger logger = LoggerFactory.getLogger(FtpConfigProcessor.class);
-
-    boolean initialized = false;
-    private final List<FtpClientData> ftpClientDataList = new ArrayList<>();
-
-    private final FtpProperties ftpProperties;
+    private final ServerInventory serverInventory;
     private final FtpFileHandler ftpFileHandler;
     private final DatHostServerAccessor datHostServerAccessor;
+    private final ServerLeaseManager serverLeaseManager;
 
     @Autowired
-    public FtpConfigProcessor(FtpProperties ftpProperties, FtpFileHandler ftpFileHandler, DatHostServerAccessor datHostServerAccessor) {
-        this.ftpProperties = ftpProperties;
+    public FtpConfigProcessor(ServerInventory serverInventory, FtpFileHandler ftpFileHandler, DatHostServerAccessor datHostServerAccessor,
+                              ServerLeaseManager serverLeaseManager) {
+        this.serverInventory = serverInventory;
         this.ftpFileHandler = ftpFileHandler;
         this.datHostServerAccessor = datHostServerAccessor;
-        loadConfigs();
+        this.serverLeaseManager = serverLeaseManager;
     }
 
+    /**
+     * Picks up changes of the server inventory file before a run, so a run never works with an outdated list.
+     */
     public void loadConfigs() {
-        if (initialized) {
-            return;
-        }
-        initialized = true;
-        for (FtpProperties.Server server : ftpProperties.getServers()) {
-            FtpClientData ftpClientData = new FtpClientData();
-            ftpClientData.setHost(server.getHost());
-            ftpClientData.setPort(server.getPort());
-            ftpClientData.setUsername(server.getUsername());
-            ftpClientData.setPassword(server.getPassword());
-            ftpClientData.setServerId(server.getServerId());
-            ftpClientData.setDemosFolder(server.getDemosFolder());
-            ftpClientData.setMapsFolder(server.getMapsFolder());
-            this.ftpClientDataList.add(ftpClientData);
-            logger.info("FTP client configuration added: Host={} Port={} Username={}",
-                    server.getHost(), server.getPort(), server.getUsername());
-        }
+        serverInventory.refresh();
     }
 
     public void downloadDemos(boolean deleteDemos) {
-        for (FtpClientData ftpClientData : this.ftpClientDataList) {
-            ftpFileHandler.connectAndCopyDemos(ftpClientData, deleteDemos);
+        // the list is a snapshot, servers removed during the run are still finished
+        for (FtpClientData ftpClientData : serverInventory.servers()) {
+            // with sharding enabled only the servers leased by this instance are processed
+            if (!serverLeaseManager.beginRun(ftpClientData.getServerId())) {
+                continue;
+            }
+            try {
+                ftpFileHandler.connectAndCopyDemos(ftpClientData, deleteDemos);
+            } finally {
+                serverLeaseManager.endRun(ftpClientData.getServerId());
+            }
         }
     }
 
     public void deleteMaps() {
-        for (FtpClientData ftpClientData : this.ftpClientDataList) {
-            ftpFileHandler.connectAndDeleteMaps(ftpClientData, datHostServerAccessor);
+        for (FtpClientData ftpClientData : serverInventory.servers()) {
+            if (!serverLeaseManager.beginRun(ftpClientData.getServerId())) {
+                continue;
+            }
+            try {
+                ftpFileHandler.connectAndDeleteMaps(ftpClientData, datHostServerAccessor);
+            } finally {
+                serverLeaseManager.endRun(ftpClientData.getServerId());
+            }
         }
     }
 }
@@ -1,29 +1,47 @@
 package at.emielregis.dathostdemomanager.ftp;
 
+import at.emielregis.dathostdemomanager.catalog.DemoCatalog;
 import at.emielregis.dathostdemomanager.dathost.DatHostServerAccessor;
+import at.emielregis.dathostdemomanager.resilience.CircuitBreakerRegistry;
+import at.emielregis.dathostdemomanager.resilience.CircuitOpenException;
+import at.emielregis.dathostdemomanager.retention.RetentionEngine;
+import at.emielregis.dathostdemomanager.sharding.ServerLeaseManager;
+import at.emielregis.dathostdemomanager.storage.DiskSpaceAdmissionController;
+import at.emielregis.dathostdemomanager.storage.DiskSpaceReservation;
+import at.emielregis.dathostdemomanager.transfer.TransferScheduler;
 import org.apache.commons.net.ftp.FTP;
 import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPConnectionClosedException;
 import org.apache.commons.net.ftp.FTPFile;
+import org.apache.commons.net.io.CopyStreamException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientException;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
 import java.time.temporal.ChronoUnit;
 import java.util.Arrays;
-import java.util.Comparator;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
@@ -45,8 +63,11 @@ public class FtpFileHandler {
     @Value("${ftp.local.max-archive-demos}")
     private int maxArchiveDemos;
 
-    @Value("${ftp.local.max-latest-demos}")
-    private int maxLatestDemos;
+    @Value("${settings.retention.cold.directory}")
+    private String coldDirectory;
+
+    @Value("${ftp.local.archive-compression-level}")
+    private int archiveCompressionLevel;
 
     @Value("${settings.demos.minutes-after-demo}")
     private int neededMinutesPassed;
@@ -57,24 +78,70 @@ public class FtpFileHandler {
     @Value("${settings.maps.min-megabytes-maps}")
     private int minMegabytesMaps;
 
+    @Value("${settings.resilience.connect-timeout-seconds}")
+    private int connectTimeoutSeconds;
+
+    @Value("${settings.resilience.read-timeout-seconds}")
+    private int readTimeoutSeconds;
+
+    @Autowired
+    private TransferScheduler transferScheduler;
+
+    @Autowired
+    private DemoCatalog demoCatalog;
+
+    @Autowired
+    private RetentionEngine retentionEngine;
+
+    @Autowired
+    private DiskSpaceAdmissionController diskSpaceAdmissionController;
+
+    @Autowired
+    private CircuitBreakerRegistry circuitBreakerRegistry;
+
+    @Autowired
+    private ServerLeaseManager serverLeaseManager;
+
+    private final Set<String> pendingRestarts = ConcurrentHashMap.newKeySet();
+
     public void connectAndCopyDemos(FtpClientData ftpClientData, boolean deleteDemos) {
+        try {
+            // a failed session is retried from the start, demos that were already downloaded are skipped
+            circuitBreakerRegistry.call(CircuitBreakerRegistry.FTP, ftpClientData.getServerId(), "demo harvest",
+                    FtpFileHandler::isConnectionFailure, () -> {
+                copyDemos(ftpClientData, deleteDemos);
+                return null;
+            });
+        } catch (CircuitOpenException e) {
+            logger.warn("Skipping demo harvest of server {}: {}", ftpClientData.getServerId(), e.getMessage());
+        } catch (IOException e) {
+            logger.error("Error occurred during FTP operation", e);
+        }
+    }
+
+    private void copyDemos(FtpClientData ftpClientData, boolean deleteDemos) throws IOException {
         String targetFolder = ftpClientData.getDemosFolder();
 
         try {
-            ftpClientData.connect();
-            logger.info("Connected to FTP server {} on port {}", ftpClientData.getHost(), ftpClientData.getPort());
-
-            ftpClientData.login();
-            logger.info("Logged in to FTP server {} as user {}", ftpClientData.getHost(), ftpClientData.getUsername());
+            connectAndLogin(ftpClientData);
 
             if (ftpClientData.changeWorkingDirectory(targetFolder)) {
                 logger.info("Changed target directory to {}", targetFolder);
-                String[] files = ftpClientData.listNames();
+                // listing the files instead of only their names gives the sizes needed to reserve disk space
+                FTPFile[] files = ftpClientData.listFiles();
                 if (files != null && files.length > 0) {
-                    logger.info("Files found in the '{}' directory of FTP server {}: {}", targetFolder, ftpClientData.getHost(), String.join(", ", files));
-                    for (String file : files) {
-                        logger.info("Copying file: {}", file);
-                        copyDemoFromFtpAndRemoveOldestIfNeeded(ftpClientData.getFtpClient(), file, deleteDemos);
+                    logger.info("Files found in the '{}' directory of FTP server {}: {}", targetFolder, ftpClientData.getHost(),
+                            Arrays.stream(files).map(FTPFile::getName).collect(Collectors.joining(", ")));
+                    for (FTPFile file : files) {
+                        if (!file.isFile()) {
+                            continue;
+                        }
+                        if (!serverLeaseManager.holds(ftpClientData.getServerId())) {
+                            logger.warn("Lost the lease of server {}, leaving the remaining demos to the new owner.", ftpClientData.getServerId());
+                            break;
+                        }
+                        logger.info("Copying file: {}", file.getName());
+                        copyDemoFromFtpAndRemoveOldestIfNeeded(ftpClientData.getFtpClient(), ftpClientData.getServerId(), file.getName(), file.getSize(), deleteDemos);
                     }
                 } else {
                     logger.info("No files found in the '{}' directory of FTP server {}", targetFolder, ftpClientData.getHost());
@@ -85,90 +152,159 @@ public class FtpFileHandler {
 
             ftpClientData.logout();
             logger.info("Logged out from FTP server {}", ftpClientData.getHost());
-        } catch (IOException e) {
-            logger.error("Error occurred during FTP operation", e);
         } finally {
-            try {
-                if (ftpClientData.isConnected()) {
-                    ftpClientData.disconnect();
-                    logger.info("Disconnected from FTP server {}", ftpClientData.getHost());
-                }
-            } catch (IOException ex) {
-                logger.error("Error occurred while disconnecting from FTP server", ex);
-            }
+            disconnect(ftpClientData);
         }
     }
 
     public void connectAndDeleteMaps(FtpClientData ftpClientData, DatHostServerAccessor serverAccessor) {
+        if (pendingRestarts.contains(ftpClientData.getServerId())) {
+            logger.info("Server {} was stopped for a map deletion and not started again, starting it now.", ftpClientData.getServerId());
+            restartServer(ftpClientData.getServerId(), serverAccessor);
+        }
+
         long totalSizeInMegabytes = getTotalMapFilesSize(ftpClientData);
+        if (totalSizeInMegabytes < 0) {
+            return; // the FTP server is not reachable, the reason has already been logged
+        }
         if (totalSizeInMegabytes < minMegabytesMaps) {
             logger.warn("Total map files size is less than {} MB. Aborting deletion.", minMegabytesMaps);
             return;
         }
 
         String serverId = ftpClientData.getServerId();
-        boolean isServerRunning = serverAccessor.isServerRunning(serverId);
+        try {
+            DatHostServerAccessor.ServerStatus status = serverAccessor.getServerStatus(serverId);
 
-        if (!isServerRunning) {
-            logger.warn("Server is not running, proceeding with map deletion.");
-            performFtpMapDeletion(ftpClientData);
-            return;
-        }
+            if (!status.running()) {
+                logger.warn("Server is not running, proceeding with map deletion.");
+                performFtpMapDeletion(ftpClientData);
+                return;
+            }
 
-        int amountOfPlayersOnServer = serverAccessor.getAmountOfPlayersOnServer(serverId);
+            int amountOfPlayersOnServer = status.playersOnline();
 
-        if (amountOfPlayersOnServer != 0) {
-            logger.warn("Server is running and not empty. Aborting map deletion.");
-            return; // Do not delete maps unless server is empty!
-        }
+            if (amountOfPlayersOnServer != 0) {
+                logger.warn("Server is running and not empty. Aborting map deletion.");
+                return; // Do not delete maps unless server is empty!
+            }
 
-        boolean serverShutdownSuccess = serverAccessor.shutdownServer(serverId);
-        if (!serverShutdownSuccess) {
-            logger.warn("Failed to shutdown the server. Aborting map deletion.");
+            boolean serverShutdownSuccess = serverAccessor.shutdownServer(serverId);
+            if (!serverShutdownSuccess) {
+                logger.warn("Failed to shutdown the server. Aborting map deletion.");
+                return;
+            }
+        } catch (RestClientException | CircuitOpenException e) {
+            logger.error("DatHost API request for server {} failed. Aborting map deletion: {}", serverId, e.getMessage());
             return;
         }
 
         performFtpMapDeletion(ftpClientData);
 
-        boolean serverStartSuccess = serverAccessor.startServer(serverId);
-        if (!serverStartSuccess) {
-            logger.warn("Failed to restart the server after map deletion.");
+        restartServer(serverId, serverAccessor);
+    }
+
+    /**
+     * Starts a server that was stopped for the map deletion. If that fails the server is remembered and started on
+     * the next map deletion run, so it is not left stopped.
+     */
+    private void restartServer(String serverId, DatHostServerAccessor serverAccessor) {
+        try {
+            if (serverAccessor.startServer(serverId)) {
+                pendingRestarts.remove(serverId);
+                return;
+            }
+            logger.warn("Failed to restart server {} after map deletion, retrying on the next run.", serverId);
+        } catch (RestClientException e) {
+            logger.error("Failed to restart server {} after map deletion, retrying on the next run: {}", serverId, e.getMessage());
         }
+        pendingRestarts.add(serverId);
     }
 
+    /**
+     * Total size of the workshop maps in megabytes, or -1 if the FTP server could not be reached.
+     */
     private long getTotalMapFilesSize(FtpClientData ftpClientData) {
         try {
-            ftpClientData.connect();
-            ftpClientData.login();
+            return circuitBreakerRegistry.call(CircuitBreakerRegistry.FTP, ftpClientData.getServerId(), "map size calculation",
+                    FtpFileHandler::isConnectionFailure, () -> {
+                try {
+                    connectAndLogin(ftpClientData);
 
-            String content730Folder = ftpClientData.getMapsFolder() + "/content/730";
-            long totalSizeInBytes = calculateTotalFileSize(ftpClientData.getFtpClient(), content730Folder);
+                    String content730Folder = ftpClientData.getMapsFolder() + "/content/730";
+                    long totalSizeInBytes = calculateTotalFileSize(ftpClientData.getFtpClient(), content730Folder);
 
-            ftpClientData.logout();
-            ftpClientData.disconnect();
+                    ftpClientData.logout();
 
-            return totalSizeInBytes / (1024 * 1024); // Convert to MB
+                    return totalSizeInBytes / (1024 * 1024); // Convert to MB
+                } finally {
+                    disconnect(ftpClientData);
+                }
+            });
+        } catch (CircuitOpenException e) {
+            logger.warn("Skipping map deletion of server {}: {}", ftpClientData.getServerId(), e.getMessage());
+            return -1;
         } catch (IOException e) {
             logger.error("Error occurred while calculating total map file size.", e);
-            return 0;
+            return -1;
         }
     }
 
     private void performFtpMapDeletion(FtpClientData ftpClientData) {
         try {
-            ftpClientData.connect();
-            ftpClientData.login();
+            circuitBreakerRegistry.call(CircuitBreakerRegistry.FTP, ftpClientData.getServerId(), "map deletion",
+                    FtpFileHandler::isConnectionFailure, () -> {
+                try {
+                    connectAndLogin(ftpClientData);
 
-            deleteMapFiles(ftpClientData.getFtpClient(), ftpClientData.getMapsFolder());
+                    deleteMapFiles(ftpClientData.getFtpClient(), ftpClientData.getMapsFolder());
 
-            ftpClientData.logout();
-            ftpClientData.disconnect();
+                    ftpClientData.logout();
+                    return null;
+                } finally {
+                    disconnect(ftpClientData);
+                }
+            });
         } catch (Exception e) {
             logger.error("Error during FTP map deletion operation.", e);
         }
     }
 
-    public void copyDemoFromFtpAndRemoveOldestIfNeeded(FTPClient ftpClient, String remoteFileName, boolean deleteFile) throws IOException {
+    private void connectAndLogin(FtpClientData ftpClientData) throws IOException {
+        ftpClientData.connect(Duration.ofSeconds(connectTimeoutSeconds), Duration.ofSeconds(readTimeoutSeconds));
+        logger.info("Connected to FTP server {} on port {}", ftpClientData.getHost(), ftpClientData.getPort());
+
+        if (!ftpClientData.login()) {
+            throw new FtpLoginException("FTP server " + ftpClientData.getHost() + " rejected the login of user " + ftpClientData.getUsername());
+        }
+        logger.info("Logged in to FTP server {} as user {}", ftpClientData.getHost(), ftpClientData.getUsername());
+    }
+
+    /**
+     * Only failures to reach or talk to the FTP server are retried and count towards opening its breaker. Local disk
+     * errors and bugs in the demo processing say nothing about the server and are passed on right away.
+     */
+    private static boolean isConnectionFailure(Exception e) {
+        // the copy loop of the ftp client wraps both a connection dropped mid-transfer and a local write error
+        if (e instanceof CopyStreamException copyStreamException) {
+            return isConnectionFailure(copyStreamException.getIOException());
+        }
+        return e instanceof SocketException || e instanceof SocketTimeoutException || e instanceof UnknownHostException
+                || e instanceof FTPConnectionClosedException || e instanceof FtpLoginException;
+    }
+
+    private void disconnect(FtpClientData ftpClientData) {
+        try {
+            if (ftpClientData.isConnected()) {
+                ftpClientData.disconnect();
+                logger.info("Disconnected from FTP server {}", ftpClientData.getHost());
+            }
+        } catch (IOException ex) {
+            logger.error("Error occurred while disconnecting from FTP server", ex);
+        }
+    }
+
+    public void copyDemoFromFtpAndRemoveOldestIfNeeded(FTPClient ftpClient, String serverId, String remoteFileName, long remoteFileSize, boolean deleteFile) throws IOException {
         cleanUpTempFiles(localDirectory);
 
         if (!remoteFileName.endsWith(allowedFileEnding)) {
@@ -194,11 +330,30 @@ public class FtpFileHandler {
             return;
         }
 
+        // the demo is written to the local directory and copied to the latest demos directory, a demo that does
+        // not fit stays on the server and is picked up by a later run
+        Optional<DiskSpaceReservation> localSpace = diskSpaceAdmissionController.tryReserve(Paths.get(localDirectory), remoteFileSize, "download of " + remoteFileName);
+        if (localSpace.isEmpty()) {
+            return;
+        }
+        Optional<DiskSpaceReservation> latestSpace = diskSpaceAdmissionController.tryReserve(Paths.get(latestDemosDirectory), remoteFileSize, "latest copy of " + remoteFileName);
+        if (latestSpace.isEmpty()) {
+            localSpace.get().close();
+            return;
+        }
+        try (DiskSpaceReservation localReservation = localSpace.get(); DiskSpaceReservation latestReservation = latestSpace.get()) {
+            downloadDemo(ftpClient, serverId, remoteFileName, epochSecond, deleteFile);
+        }
+    }
+
+    private void downloadDemo(FTPClient ftpClient, String serverId, String remoteFileName, long epochSecond, boolean deleteFile) throws IOException {
+        String localFilePath = localDirectory + "/" + remoteFileName;
+        File localFile = new File(localFilePath);
         String tempFilePath = localFilePath + ".tmp";
         File tempFile = new File(tempFilePath);
 
         boolean success = false;
-        try (OutputStream outputStream = new FileOutputStream(tempFilePath)) {
+        try (OutputStream outputStream = transferScheduler.throttle(serverId, new FileOutputStream(tempFilePath))) {
             ftpClient.setFileType(FTP.BINARY_FILE_TYPE);
             if (ftpClient.retrieveFile(remoteFileName, outputStream)) {
                 logger.info("Successfully downloaded file: {} to temporary file {}", remoteFileName, tempFilePath);
@@ -207,15 +362,27 @@ public class FtpFileHandler {
                 logger.warn("Failed to download file: {}", remoteFileName);
             }
         } catch (IOException e) {
+            // a dropped connection fails the session, so it is retried and counted by the circuit breaker
+            if (isConnectionFailure(e)) {
+                throw e;
+            }
             logger.error("Error occurred while downloading file: {}", remoteFileName, e);
+        } finally {
+            if (!success && tempFile.exists() && !tempFile.delete()) {
+                logger.warn("Failed to delete temporary file: {}", tempFilePath);
+            }
         }
 
         if (success) {
             if (tempFile.renameTo(localFile)) {
                 logger.info("Successfully moved temporary file to final destination: {}", localFilePath);
+                demoCatalog.record(serverId, localFile.toPath(), epochSecond);
                 handleArchiveAndLatestDemos(remoteFileName);
 
-                if (deleteFile) {
+                // the lease may have expired during a long download, the new owner may already be copying the file
+                if (deleteFile && !serverLeaseManager.holds(serverId)) {
+                    logger.warn("Lost the lease of server {}, not deleting file: {} from FTP server.", serverId, remoteFileName);
+                } else if (deleteFile) {
                     boolean deleted = ftpClient.deleteFile(remoteFileName);
                     if (deleted) {
                         logger.info("Successfully deleted file: {} from FTP server.", remoteFileName);
@@ -226,10 +393,6 @@ public class FtpFileHandler {
             } else {
                 logger.error("Failed to rename temporary file to final destination: {}", localFilePath);
             }
-        } else {
-            if (tempFile.exists() && !tempFile.delete()) {
-                logger.warn("Failed to delete temporary file: {}", tempFilePath);
-            }
         }
     }
 
@@ -327,14 +490,6 @@ public class FtpFileHandler {
     }
 
     private void handleArchiveAndLatestDemos(String newDemoFileName) throws IOException {
-        File latestDemosDir = new File(latestDemosDirectory);
-
-        // Remove the oldest files until the number of files is below the maxLatestDemos limit
-        String[] latestDemosFiles = Optional.ofNullable(latestDemosDir.list()).orElse(new String[0]);
-        if (latestDemosFiles.length >= maxLatestDemos) {
-            deleteOldestFiles(latestDemosDir, latestDemosFiles.length - maxLatestDemos + 1, newDemoFileName);
-        }
-
         Path sourcePath = Paths.get(localDirectory + "/" + newDemoFileName);
         Path destinationPath = Paths.get(latestDemosDirectory + "/" + newDemoFileName);
 
@@ -344,6 +499,10 @@ public class FtpFileHandler {
             Files.copy(sourcePath, destinationPath);
             logger.info("Copied {} to latest demos directory.", newDemoFileName);
         }
+        demoCatalog.markInLatest(newDemoFileName, true);
+
+        // Remove the oldest files until the latest demos directory is within its limits again
+        retentionEngine.enforceLatest(newDemoFileName);
 
         File localDir = new File(localDirectory);
 
@@ -351,27 +510,11 @@ public class FtpFileHandler {
         String[] localFiles = Optional.ofNullable(localDir.list()).orElse(new String[0]);
         if (localFiles.length >= maxArchiveDemos) {
             zipAndClearLocalDirectory(localDir);
+            retentionEngine.enforceArchives();
         }
     }
 
-    private void deleteOldestFiles(File directory, int filesToDelete, String newDemoFileName) throws IOException {
-        try (Stream<Path> paths = Files.list(directory.toPath())) {
-            paths.map(Path::toFile)
-                    .sorted(Comparator.comparing(this::extractDateFromFilename)) // Sort by the date extracted from the filename
-                    .limit(filesToDelete) // Limit to the number of files that need to be deleted
-                    .filter(file -> file.getName().endsWith(allowedFileEnding) && !file.getName().equals(newDemoFileName) && file.isFile())
-                    .forEach(file -> {
-                        if (file.delete()) {
-                            logger.info("Deleted file: {}", file.getName());
-                        } else {
-                            logger.warn("Failed to delete file: {}", file.getName());
-                        }
-                    });
-        }
-        logger.info("Deleted {} oldest file(s) in the latest demos directory.", filesToDelete);
-    }
-
-    private void zipAndClearLocalDirectory(File localDir) {
+    void zipAndClearLocalDirectory(File localDir) {
         File[] files = Optional.ofNullable(localDir.listFiles()).orElse(new File[0]);
         if (files.length == 0) {
             logger.info("No files to archive in the local directory.");
@@ -380,11 +523,25 @@ public class FtpFileHandler {
 
         files = Arrays.stream(files).filter(file -> file.isFile() && file.getName().endsWith(allowedFileEnding)).toList().toArray(new File[0]);
 
+        // deflate never grows demos by more than a fraction of a percent, the rest covers the zip headers
+        long totalBytes = Arrays.stream(files).mapToLong(File::length).sum();
+        Optional<DiskSpaceReservation> archiveSpace = diskSpaceAdmissionController.tryReserve(Paths.get(archiveDirectory),
+                totalBytes + totalBytes / 100, "archive build of " + files.length + " demos");
+        if (archiveSpace.isEmpty()) {
+            return;
+        }
+        try (DiskSpaceReservation reservation = archiveSpace.get()) {
+            zipFiles(files);
+        }
+    }
+
+    private void zipFiles(File[] files) {
         String newFileName = getNextArchiveFileName(files.length);
         File tempZipFile = new File(archiveDirectory + "/" + newFileName + ".tmp");
         File finalZipFile = new File(archiveDirectory + "/" + newFileName);
 
         try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(tempZipFile))) {
+            zos.setLevel(archiveCompressionLevel);
             for (File file : files) {
                 logger.info("Adding file {} to zip file.", file.getName());
                 zos.putNextEntry(new ZipEntry(file.getName()));
@@ -392,11 +549,17 @@ public class FtpFileHandler {
                 zos.closeEntry();
             }
         } catch (IOException e) {
-            logger.error("Error occurred while creating zip file: {}", finalZipFile.getName(), e);
+            // an incomplete archive must not replace the demos, they stay in the local directory for the next run
+            logger.error("Error occurred while creating zip file: {}, keeping the demos in the local directory.", finalZipFile.getName(), e);
+            if (tempZipFile.exists() && !tempZipFile.delete()) {
+                logger.warn("Failed to delete temporary zip file: {}", tempZipFile.getName());
+            }
+            return;
         }
         try {
             if (tempZipFile.renameTo(finalZipFile)) {
                 logger.info("Successfully created archive: {}", finalZipFile.getName());
+                demoCatalog.markArchived(Arrays.stream(files).map(File::getName).toList(), newFileName);
 
                 for (File file : files) {
                     if (file.delete()) {
@@ -421,35 +584,34 @@ public class FtpFileHandler {
         logger.info("Zipped and cleared local directory.");
     }
 
-    private String getNextArchiveFileName(int fileCount) {
-        File archiveDir = new File(archiveDirectory);
-        File[] archiveFiles = Optional.ofNullable(archiveDir.listFiles((dir, name) -> name.matches("\\d{1,6}-\\d{1,6}\\.zip"))).orElse(new File[0]);
-
-        int left = 1;
-        int right = fileCount;
-
-        if (archiveFiles.length > 0) {
-            int maxRight = 0;
-
-            for (File file : archiveFiles) {
-                String name = file.getName().replace(".zip", "");
-                String[] parts = name.split("-");
-                int currentRight = Integer.parseInt(parts[1]);
-
-                if (currentRight > maxRight) {
-                    maxRight = currentRight;
-                }
+    String getNextArchiveFileName(int fileCount) {
+        // archives moved to the cold directory keep their names, their numbers must not be given out again
+        File[] archiveFiles = Stream.of(archiveDirectory, coldDirectory)
+                .filter(directory -> !directory.isBlank())
+                .map(directory -> Optional.ofNullable(new File(directory).listFiles((dir, name) -> name.matches("\\d{1,6}-\\d{1,6}\\.zip"))).orElse(new File[0]))
+                .flatMap(Arrays::stream)
+                .toArray(File[]::new);
+
+        // deleted archives are gone from disk, the catalog remembers the highest number that was ever given out
+        long maxRight = demoCatalog.getHighestArchiveNumber();
+        for (File file : archiveFiles) {
+            String name = file.getName().replace(".zip", "");
+            String[] parts = name.split("-");
+            long currentRight = Long.parseLong(parts[1]);
+
+            if (currentRight > maxRight) {
+                maxRight = currentRight;
             }
-
-            left = maxRight + 1;
-            right = left + fileCount - 1;
         }
 
+        long left = maxRight + 1;
+        long right = left + fileCount - 1;
+
         logger.info("Generated next archive file name: {}-{}.zip", left, right);
         return left + "-" + right + ".zip";
     }
 
-    private long extractDateFromFilename(File file) {
+    long extractDateFromFilename(File file) {
         String filename = file.getName();
         String[] split = filename.split("_");
         if (split.length < 2) {
@@ -465,7 +627,7 @@ public class FtpFileHandler {
         }
     }
 
-    private long extractDateFromFilename(String filename) {
+    long extractDateFromFilename(String filename) {
         String[] split = filename.split("_");
         if (split.length < 2) {
             logger.warn("Failed to parse date from filename: {}. Falling back to last modified time.", filename);
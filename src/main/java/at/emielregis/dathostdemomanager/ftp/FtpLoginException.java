@@ -0,0 +1,13 @@
+package at.emielregis.dathostdemomanager.ftp;
+
+import java.io.IOException;
+
+/**
+ * Thrown when an FTP server does not accept the configured credentials.
+ */
+public class FtpLoginException extends IOException {
+
+    public FtpLoginException(String message) {
+        super(message);
+    }
+}
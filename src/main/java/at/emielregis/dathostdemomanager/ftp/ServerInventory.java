@@ -0,0 +1,226 @@
+package at.emielregis.dathostdemomanager.ftp;
+
+import at.emielregis.dathostdemomanager.SchedulingConfiguration;
+import at.emielregis.dathostdemomanager.resilience.CircuitBreakerRegistry;
+import at.emielregis.dathostdemomanager.transfer.TransferScheduler;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.bind.BindResult;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.ConfigurationPropertySources;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The servers that are harvested. The list comes from {@code ftp.servers} or, if {@code ftp.config.path} is set, from
+ * an external YAML file with the same {@code ftp.servers} layout. The file is checked for changes periodically and
+ * before every run, so servers can be added, changed and removed without a restart.
+ * <p>
+ * Every reload produces a new immutable list. A run that is in progress keeps iterating the list it started with, so
+ * its transfers finish; the next run uses the new list. Servers whose definition did not change keep their FTP client,
+ * the transfer and circuit breaker state of removed and changed servers is dropped once their transfers are done.
+ */
+@Component
+public class ServerInventory {
+
+    private static final Logger logger = LoggerFactory.getLogger(ServerInventory.class);
+
+    @Autowired
+    private FtpProperties ftpProperties;
+
+    @Autowired
+    private TransferScheduler transferScheduler;
+
+    @Autowired
+    private CircuitBreakerRegistry circuitBreakerRegistry;
+
+    public record ServerInfo(String serverId, String host, int port, String demosFolder, String mapsFolder) {
+    }
+
+    private record Entry(FtpProperties.Server definition, FtpClientData client) {
+    }
+
+    private volatile Map<String, Entry> entries = Map.of();
+    private volatile String source;
+    private volatile Instant loadedAt;
+
+    private boolean loaded;
+    private long fileModified = -1;
+    private long fileSize = -1;
+
+    @PostConstruct
+    public void init() {
+        refresh();
+    }
+
+    /**
+     * Reloads the inventory if the external file changed since the last load. Without an external file the servers
+     * from the application properties are loaded once.
+     */
+    @Scheduled(fixedDelayString = "${settings.inventory.reload-interval-seconds}", timeUnit = TimeUnit.SECONDS,
+            scheduler = SchedulingConfiguration.MAINTENANCE_SCHEDULER)
+    public synchronized void refresh() {
+        Optional<Path> file = configFile();
+        if (file.isEmpty()) {
+            if (!loaded) {
+                apply(Optional.ofNullable(ftpProperties.getServers()).orElse(List.of()), "application properties");
+            }
+            return;
+        }
+
+        Path path = file.get();
+        long modified;
+        long size;
+        try {
+            modified = Files.getLastModifiedTime(path).toMillis();
+            size = Files.size(path);
+        } catch (IOException e) {
+            keepCurrent("Cannot read server inventory file " + path + ": " + e);
+            return;
+        }
+        if (loaded && modified == fileModified && size == fileSize) {
+            return;
+        }
+
+        Optional<List<FtpProperties.Server>> servers = readServers(path);
+        if (servers.isEmpty()) {
+            // the file may be in the middle of being written, it is read again on the next check
+            keepCurrent("Server inventory file " + path + " has no valid ftp.servers list");
+            return;
+        }
+        fileModified = modified;
+        fileSize = size;
+        apply(servers.get(), path.toString());
+    }
+
+    public List<FtpClientData> servers() {
+        return entries.values().stream().map(Entry::client).toList();
+    }
+
+    public List<ServerInfo> serverInfos() {
+        return entries.values().stream()
+                .map(Entry::definition)
+                .map(server -> new ServerInfo(server.getServerId(), server.getHost(), server.getPort(),
+                        server.getDemosFolder(), server.getMapsFolder()))
+                .toList();
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public Instant getLoadedAt() {
+        return loadedAt;
+    }
+
+    private Optional<Path> configFile() {
+        String path = ftpProperties.getConfig() == null ? null : ftpProperties.getConfig().getPath();
+        return path == null || path.isBlank() ? Optional.empty() : Optional.of(Paths.get(path));
+    }
+
+    private void keepCurrent(String reason) {
+        if (!loaded) {
+            logger.warn("{}, using the servers from the application properties for now.", reason);
+            apply(Optional.ofNullable(ftpProperties.getServers()).orElse(List.of()), "application properties");
+        } else {
+            logger.warn("{}, keeping the current {} servers.", reason, entries.size());
+        }
+    }
+
+    private Optional<List<FtpProperties.Server>> readServers(Path path) {
+        try {
+            List<PropertySource<?>> sources = new YamlPropertySourceLoader().load(path.toString(), new FileSystemResource(path));
+            BindResult<List<FtpProperties.Server>> result = new Binder(ConfigurationPropertySources.from(sources))
+                    .bind("ftp.servers", Bindable.listOf(FtpProperties.Server.class));
+            if (result.isBound()) {
+                return Optional.of(result.get());
+            }
+            // a present but empty ftp.servers key removes all servers, only a missing key means the file is incomplete
+            boolean emptyList = sources.stream().anyMatch(source -> source.containsProperty("ftp.servers"));
+            return emptyList ? Optional.of(List.of()) : Optional.empty();
+        } catch (IOException | RuntimeException e) {
+            logger.error("Failed to read server inventory file {}", path, e);
+            return Optional.empty();
+        }
+    }
+
+    private void apply(List<FtpProperties.Server> servers, String newSource) {
+        Map<String, Entry> current = entries;
+        Map<String, Entry> next = new LinkedHashMap<>();
+        List<String> added = new ArrayList<>();
+        List<String> changed = new ArrayList<>();
+
+        for (FtpProperties.Server server : servers) {
+            String serverId = server.getServerId();
+            if (serverId == null || serverId.isBlank()) {
+                logger.warn("Ignoring server {} without a server id.", server.getHost());
+                continue;
+            }
+            if (next.containsKey(serverId)) {
+                logger.warn("Ignoring duplicate definition of server {}.", serverId);
+                continue;
+            }
+            Entry existing = current.get(serverId);
+            if (existing != null && existing.definition().equals(server)) {
+                next.put(serverId, existing);
+                continue;
+            }
+            next.put(serverId, new Entry(server, createClient(server)));
+            (existing == null ? added : changed).add(serverId);
+            logger.info("FTP client configuration {}: ServerId={} Host={} Port={} Username={}", existing == null ? "added" : "changed",
+                    serverId, server.getHost(), server.getPort(), server.getUsername());
+        }
+
+        List<String> removed = current.keySet().stream().filter(serverId -> !next.containsKey(serverId)).toList();
+        entries = Collections.unmodifiableMap(next);
+        source = newSource;
+        loadedAt = Instant.now();
+        loaded = true;
+
+        for (String serverId : removed) {
+            logger.info("FTP client configuration removed: ServerId={}. Running transfers are finished first.", serverId);
+            transferScheduler.removeServer(serverId);
+            circuitBreakerRegistry.removeServer(serverId);
+        }
+        for (String serverId : added) {
+            // a server that is added back before its transfers drained must not lose its state when they end
+            transferScheduler.addServer(serverId);
+        }
+        for (String serverId : changed) {
+            circuitBreakerRegistry.removeServer(serverId);
+        }
+        logger.info("Server inventory loaded from {}: {} servers ({} added, {} changed, {} removed).",
+                newSource, next.size(), added.size(), changed.size(), removed.size());
+    }
+
+    private FtpClientData createClient(FtpProperties.Server server) {
+        FtpClientData ftpClientData = new FtpClientData();
+        ftpClientData.setHost(server.getHost());
+        ftpClientData.setPort(server.getPort());
+        ftpClientData.setUsername(server.getUsername());
+        ftpClientData.setPassword(server.getPassword());
+        ftpClientData.setServerId(server.getServerId());
+        ftpClientData.setDemosFolder(server.getDemosFolder());
+        ftpClientData.setMapsFolder(server.getMapsFolder());
+        return ftpClientData;
+    }
+}
@@ -0,0 +1,88 @@
+package at.emielregis.dathostdemomanager.http;
+
+import jakarta.annotation.PreDestroy;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@Configuration
+public class HttpClientConfiguration {
+
+    private static final Logger logger = LoggerFactory.getLogger(HttpClientConfiguration.class);
+
+    @Value("${settings.http.max-requests}")
+    private int maxRequests;
+
+    @Value("${settings.http.max-requests-per-host}")
+    private int maxRequestsPerHost;
+
+    @Value("${settings.http.max-idle-connections}")
+    private int maxIdleConnections;
+
+    @Value("${settings.http.keep-alive-seconds}")
+    private long keepAliveSeconds;
+
+    @Value("${settings.http.connect-timeout-seconds}")
+    private long connectTimeoutSeconds;
+
+    @Value("${settings.http.read-timeout-seconds}")
+    private long readTimeoutSeconds;
+
+    @Value("${settings.http.call-timeout-seconds}")
+    private long callTimeoutSeconds;
+
+    @Value("${settings.http.max-retries}")
+    private int maxRetries;
+
+    @Value("${settings.http.initial-backoff-millis}")
+    private long initialBackoffMillis;
+
+    private OkHttpClient client;
+
+    /**
+     * Shared client for all Steam API and CDN traffic. Reusing one instance keeps the connection pool and the
+     * dispatcher threads alive between calls, so consecutive requests to the same host are multiplexed over
+     * one HTTP/2 connection instead of doing a new TLS handshake each time. The client has no response cache,
+     * preview images are revalidated against the content-addressed image store (see
+     * {@link at.emielregis.dathostdemomanager.workshop.WorkshopImageStore}) so each image is only stored once.
+     */
+    @Bean
+    public OkHttpClient okHttpClient() {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(maxRequests);
+        dispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+
+        client = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(maxIdleConnections, keepAliveSeconds, TimeUnit.SECONDS))
+                .protocols(List.of(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .connectTimeout(Duration.ofSeconds(connectTimeoutSeconds))
+                .readTimeout(Duration.ofSeconds(readTimeoutSeconds))
+                .callTimeout(Duration.ofSeconds(callTimeoutSeconds))
+                .retryOnConnectionFailure(true)
+                .addInterceptor(new RetryInterceptor(maxRetries, initialBackoffMillis))
+                .build();
+
+        logger.info("Created shared HTTP client: maxRequests={} maxRequestsPerHost={} maxIdleConnections={}",
+                maxRequests, maxRequestsPerHost, maxIdleConnections);
+        return client;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (client != null) {
+            client.dispatcher().executorService().shutdown();
+            client.connectionPool().evictAll();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package at.emielregis.dathostdemomanager.http;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Retries failed calls with exponential backoff and jitter. A call is retried when it fails with an
+ * {@link IOException} or when the server answers with 429 or a 5xx status. A {@code Retry-After} header on the
+ * response replaces the computed delay, capped at the maximum backoff.
+ */
+public class RetryInterceptor implements Interceptor {
+
+    private static final Logger logger = LoggerFactory.getLogger(RetryInterceptor.class);
+
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+
+    private final int maxRetries;
+    private final long initialBackoffMillis;
+
+    public RetryInterceptor(int maxRetries, long initialBackoffMillis) {
+        this.maxRetries = maxRetries;
+        this.initialBackoffMillis = initialBackoffMillis;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        for (int attempt = 0; ; attempt++) {
+            long delayMillis = backoffMillis(attempt);
+            try {
+                Response response = chain.proceed(request);
+                if (!isRetryable(response.code()) || attempt >= maxRetries) {
+                    return response;
+                }
+                // steam says how long to back off when it rate limits, retrying earlier only earns another 429
+                long retryAfterMillis = retryAfterMillis(response.header("Retry-After"));
+                if (retryAfterMillis >= 0) {
+                    delayMillis = Math.min(retryAfterMillis, MAX_BACKOFF_MILLIS);
+                }
+                logger.warn("Request to {} returned {}, retrying in {} ms (attempt {}/{})",
+                        request.url().host(), response.code(), delayMillis, attempt + 1, maxRetries);
+                response.close();
+            } catch (IOException e) {
+                if (e instanceof InterruptedIOException && chain.call().isCanceled()) {
+                    throw e;
+                }
+                if (attempt >= maxRetries) {
+                    throw e;
+                }
+                logger.warn("Request to {} failed: {}, retrying (attempt {}/{})",
+                        request.url().host(), e.getMessage(), attempt + 1, maxRetries);
+            }
+            sleep(delayMillis);
+        }
+    }
+
+    /**
+     * Parses a {@code Retry-After} header given in seconds or as an HTTP date, -1 if it is missing or invalid.
+     */
+    static long retryAfterMillis(String retryAfter) {
+        if (retryAfter == null || retryAfter.isBlank()) {
+            return -1;
+        }
+        try {
+            return Math.max(0, Long.parseLong(retryAfter.strip()) * 1000);
+        } catch (NumberFormatException e) {
+            // not a number of seconds, try the date form
+        }
+        try {
+            ZonedDateTime date = ZonedDateTime.parse(retryAfter.strip(), DateTimeFormatter.RFC_1123_DATE_TIME);
+            return Math.max(0, date.toInstant().toEpochMilli() - System.currentTimeMillis());
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    private boolean isRetryable(int code) {
+        return code == 429 || code >= 500;
+    }
+
+    private long backoffMillis(int attempt) {
+        long exponential = Math.min(MAX_BACKOFF_MILLIS, initialBackoffMillis << Math.min(attempt, 16));
+        // randomising half of the delay keeps concurrent retries from hitting the host in lockstep
+        return ThreadLocalRandom.current().nextLong(exponential / 2, exponential + 1);
+    }
+
+    private void sleep(long millis) throws IOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry");
+        }
+    }
+}
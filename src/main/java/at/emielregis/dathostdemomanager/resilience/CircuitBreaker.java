@@ -0,0 +1,125 @@
+package at.emielregis.dathostdemomanager.resilience;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+
+/**
+ * Circuit breaker of a single remote system of a single server, e.g. the FTP server or the DatHost API of one game
+ * server. After {@code failureThreshold} consecutive failures the breaker opens and rejects every call until the open
+ * time has passed. Then exactly one probe call is let through: if it succeeds the breaker closes again, if it fails
+ * the breaker opens again for twice as long, up to {@code maxOpenMillis}.
+ */
+public class CircuitBreaker {
+
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    public record Snapshot(String name, State state, int consecutiveFailures, Instant openUntil, long successes,
+                           long failures, long rejected, String lastFailure, Instant lastFailureAt) {
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long baseOpenMillis;
+    private final long maxOpenMillis;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openMillis;
+    private long openUntil;
+    private boolean probeInFlight;
+    private long successes;
+    private long failures;
+    private long rejected;
+    private String lastFailure;
+    private long lastFailureAt;
+
+    public CircuitBreaker(String name, int failureThreshold, long openMillis, long maxOpenMillis) {
+        this.name = name;
+        this.failureThreshold = Math.max(failureThreshold, 1);
+        this.baseOpenMillis = openMillis;
+        this.maxOpenMillis = Math.max(maxOpenMillis, openMillis);
+        this.openMillis = openMillis;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns whether a call may be made now. Every permitted call must be followed by {@link #onSuccess()} or
+     * {@link #onFailure(Exception)}, otherwise a half-open breaker never lets another probe through.
+     */
+    public synchronized boolean tryAcquire() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.currentTimeMillis() >= openUntil) {
+                    state = State.HALF_OPEN;
+                    probeInFlight = true;
+                    logger.info("Circuit breaker {} is half-open, letting a probe call through.", name);
+                    return true;
+                }
+                rejected++;
+                return false;
+            default:
+                if (probeInFlight) {
+                    rejected++;
+                    return false;
+                }
+                probeInFlight = true;
+                return true;
+        }
+    }
+
+    public synchronized boolean isHalfOpen() {
+        return state == State.HALF_OPEN;
+    }
+
+    public synchronized Instant getOpenUntil() {
+        return Instant.ofEpochMilli(openUntil);
+    }
+
+    public synchronized void onSuccess() {
+        successes++;
+        consecutiveFailures = 0;
+        probeInFlight = false;
+        openMillis = baseOpenMillis;
+        if (state != State.CLOSED) {
+            state = State.CLOSED;
+            logger.info("Circuit breaker {} is closed again.", name);
+        }
+    }
+
+    public synchronized void onFailure(Exception e) {
+        failures++;
+        consecutiveFailures++;
+        probeInFlight = false;
+        lastFailure = e.toString();
+        lastFailureAt = System.currentTimeMillis();
+        if (state == State.HALF_OPEN) {
+            openMillis = Math.min(openMillis * 2, maxOpenMillis);
+            open();
+        } else if (state == State.CLOSED && consecutiveFailures >= failureThreshold) {
+            open();
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openUntil = System.currentTimeMillis() + openMillis;
+        logger.warn("Circuit breaker {} opened after {} consecutive failures, rejecting calls for {} seconds. Last failure: {}",
+                name, consecutiveFailures, openMillis / 1000, lastFailure);
+    }
+
+    public synchronized Snapshot snapshot() {
+        return new Snapshot(name, state, consecutiveFailures, state == State.CLOSED ? null : Instant.ofEpochMilli(openUntil),
+                successes, failures, rejected, lastFailure, lastFailure == null ? null : Instant.ofEpochMilli(lastFailureAt));
+    }
+}
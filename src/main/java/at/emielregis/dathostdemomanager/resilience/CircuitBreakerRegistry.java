@@ -0,0 +1,162 @@
+package at.emielregis.dathostdemomanager.resilience;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Runs calls to the FTP servers and the DatHost API through a circuit breaker per server and system, retrying failed
+ * calls with backoff. A server whose breaker is open is skipped without opening a connection, so a dead server no
+ * longer holds a scheduler thread for its connect timeouts on every run.
+ */
+@Component
+public class CircuitBreakerRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreakerRegistry.class);
+
+    public static final String FTP = "ftp";
+    public static final String DATHOST = "dathost";
+
+    @Value("${settings.resilience.failure-threshold}")
+    private int failureThreshold;
+
+    @Value("${settings.resilience.open-seconds}")
+    private long openSeconds;
+
+    @Value("${settings.resilience.max-open-seconds}")
+    private long maxOpenSeconds;
+
+    @Value("${settings.resilience.max-attempts}")
+    private int maxAttempts;
+
+    @Value("${settings.resilience.initial-backoff-millis}")
+    private long initialBackoffMillis;
+
+    @Value("${settings.resilience.max-backoff-millis}")
+    private long maxBackoffMillis;
+
+    private RetryPolicy retryPolicy;
+
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    @FunctionalInterface
+    public interface ResilientCall<T, E extends Exception> {
+        T call() throws E;
+    }
+
+    @PostConstruct
+    public void init() {
+        retryPolicy = new RetryPolicy(maxAttempts, initialBackoffMillis, maxBackoffMillis);
+        logger.info("Circuit breakers open after {} consecutive failures for {} to {} seconds, calls are attempted up to {} times.",
+                failureThreshold, openSeconds, maxOpenSeconds, retryPolicy.maxAttempts());
+    }
+
+    public CircuitBreaker breaker(String system, String serverId) {
+        return breakers.computeIfAbsent(system + ":" + serverId,
+                name -> new CircuitBreaker(name, failureThreshold, openSeconds * 1000, maxOpenSeconds * 1000));
+    }
+
+    /**
+     * Drops the breakers of a server that was removed from the inventory or whose connection settings changed, so a
+     * corrected server starts with closed breakers.
+     */
+    public void removeServer(String serverId) {
+        if (breakers.keySet().removeIf(name -> name.substring(name.indexOf(':') + 1).equals(serverId))) {
+            logger.info("Dropped the circuit breakers of server {}.", serverId);
+        }
+    }
+
+    public <T, E extends Exception> T call(String system, String serverId, String operation, ResilientCall<T, E> call) throws E {
+        return call(system, serverId, operation, e -> true, call);
+    }
+
+    /**
+     * Makes the call unless the breaker of the server is open, in which case a {@link CircuitOpenException} is thrown.
+     * Failures matching {@code retryable} are retried and count towards opening the breaker; other failures mean the
+     * remote side is reachable and answered, they are rethrown right away without counting.
+     */
+    public <T, E extends Exception> T call(String system, String serverId, String operation,
+                                           Predicate<Exception> retryable, ResilientCall<T, E> call) throws E {
+        CircuitBreaker breaker = breaker(system, serverId);
+        if (!breaker.tryAcquire()) {
+            throw new CircuitOpenException(breaker.getName(), breaker.getOpenUntil());
+        }
+        // a probe of a half-open breaker gets a single attempt, a server that is still down must not be retried
+        int attempts = breaker.isHalfOpen() ? 1 : retryPolicy.maxAttempts();
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                T result = call.call();
+                breaker.onSuccess();
+                return result;
+            } catch (Exception e) {
+                if (!retryable.test(e)) {
+                    breaker.onSuccess();
+                    throw CircuitBreakerRegistry.<E>asThrown(e);
+                }
+                if (attempt >= attempts) {
+                    breaker.onFailure(e);
+                    throw CircuitBreakerRegistry.<E>asThrown(e);
+                }
+                long backoffMillis = retryPolicy.backoffMillis(attempt);
+                logger.warn("{} on {} failed: {}, retrying in {} ms (attempt {}/{})",
+                        operation, breaker.getName(), e.getMessage(), backoffMillis, attempt, attempts);
+                try {
+                    Thread.sleep(backoffMillis);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    breaker.onFailure(e);
+                    throw CircuitBreakerRegistry.<E>asThrown(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Retries the call with the same backoff but without asking or updating the breaker of the server. Meant for calls
+     * that must not be skipped because of earlier failures, like starting a server that this application stopped.
+     */
+    public <T, E extends Exception> T retry(String system, String serverId, String operation,
+                                            Predicate<Exception> retryable, ResilientCall<T, E> call) throws E {
+        String name = system + ":" + serverId;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return call.call();
+            } catch (Exception e) {
+                if (!retryable.test(e) || attempt >= retryPolicy.maxAttempts()) {
+                    throw CircuitBreakerRegistry.<E>asThrown(e);
+                }
+                long backoffMillis = retryPolicy.backoffMillis(attempt);
+                logger.warn("{} on {} failed: {}, retrying in {} ms (attempt {}/{})",
+                        operation, name, e.getMessage(), backoffMillis, attempt, retryPolicy.maxAttempts());
+                try {
+                    Thread.sleep(backoffMillis);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw CircuitBreakerRegistry.<E>asThrown(e);
+                }
+            }
+        }
+    }
+
+    public List<CircuitBreaker.Snapshot> snapshots() {
+        return breakers.values().stream()
+                .map(CircuitBreaker::snapshot)
+                .sorted(Comparator.comparing(CircuitBreaker.Snapshot::name))
+                .toList();
+    }
+
+    // the call only throws E or unchecked exceptions, so rethrowing what was caught as E is safe
+    @SuppressWarnings("unchecked")
+    private static <E extends Exception> E asThrown(Exception e) {
+        return (E) e;
+    }
+}
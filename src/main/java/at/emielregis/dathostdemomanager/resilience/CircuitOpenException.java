@@ -0,0 +1,20 @@
+package at.emielregis.dathostdemomanager.resilience;
+
+import java.time.Instant;
+
+/**
+ * Thrown instead of making a call while the circuit breaker of the server is open.
+ */
+public class CircuitOpenException extends RuntimeException {
+
+    private final Instant openUntil;
+
+    public CircuitOpenException(String breakerName, Instant openUntil) {
+        super("circuit breaker " + breakerName + " is open until " + openUntil);
+        this.openUntil = openUntil;
+    }
+
+    public Instant getOpenUntil() {
+        return openUntil;
+    }
+}
@@ -0,0 +1,23 @@
+package at.emielregis.dathostdemomanager.resilience;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Bounded retries with exponential backoff and jitter, the same schedule the shared HTTP client uses for the Steam
+ * API.
+ */
+public record RetryPolicy(int maxAttempts, long initialBackoffMillis, long maxBackoffMillis) {
+
+    public RetryPolicy {
+        maxAttempts = Math.max(maxAttempts, 1);
+    }
+
+    /**
+     * Delay before the attempt following the given failed attempt (starting at 1).
+     */
+    public long backoffMillis(int failedAttempt) {
+        long exponential = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(failedAttempt - 1, 16));
+        // randomising half of the delay keeps servers that failed together from being retried in lockstep
+        return ThreadLocalRandom.current().nextLong(exponential / 2, exponential + 1);
+    }
+}
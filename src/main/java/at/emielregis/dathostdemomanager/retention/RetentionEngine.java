@@ -0,0 +1,476 @@
+package at.emielregis.dathostdemomanager.retention;
+
+import at.emielregis.dathostdemomanager.SchedulingConfiguration;
+import at.emielregis.dathostdemomanager.catalog.ArchiveTier;
+import at.emielregis.dathostdemomanager.catalog.DemoCatalog;
+import at.emielregis.dathostdemomanager.catalog.DemoCatalogEntry;
+import at.emielregis.dathostdemomanager.storage.DiskSpaceAdmissionController;
+import at.emielregis.dathostdemomanager.storage.DiskSpaceReservation;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Enforces the retention policy of the latest and archive directories: a demo count, byte budgets and age limits,
+ * and tiering of old archives (recompressing them or moving them to a cold directory). All decisions are made from
+ * the {@link DemoCatalog}, the directories are only listed once on startup to adopt demos that were stored before
+ * the catalog existed. Archive sizes are read once per archive and then kept in memory.
+ */
+@Component
+public class RetentionEngine {
+
+    private static final Logger logger = LoggerFactory.getLogger(RetentionEngine.class);
+
+    private static final DateTimeFormatter DEMO_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss");
+    private static final long BYTES_PER_MEGABYTE = 1024 * 1024;
+
+    @Value("${ftp.local.directory}")
+    private String localDirectory;
+
+    @Value("${ftp.local.archive-directory}")
+    private String archiveDirectory;
+
+    @Value("${ftp.local.latest-demos-directory}")
+    private String latestDemosDirectory;
+
+    @Value("${ftp.local.max-latest-demos}")
+    private int maxLatestDemos;
+
+    @Value("${settings.demos.allowed-file-ending}")
+    private String allowedFileEnding;
+
+    @Value("${settings.retention.latest.max-megabytes}")
+    private long latestMaxMegabytes;
+
+    @Value("${settings.retention.latest.max-age-days}")
+    private int latestMaxAgeDays;
+
+    @Value("${settings.retention.archive.max-megabytes}")
+    private long archiveMaxMegabytes;
+
+    @Value("${settings.retention.archive.max-age-days}")
+    private int archiveMaxAgeDays;
+
+    @Value("${settings.retention.archive.tier-after-days}")
+    private int tierAfterDays;
+
+    @Value("${settings.retention.archive.tier-action}")
+    private TierAction tierAction;
+
+    @Value("${settings.retention.archive.tier-compression-level}")
+    private int tierCompressionLevel;
+
+    @Value("${settings.retention.archive.max-tier-operations-per-run}")
+    private int maxTierOperationsPerRun;
+
+    @Value("${settings.retention.cold.directory}")
+    private String coldDirectory;
+
+    @Value("${settings.retention.cold.max-megabytes}")
+    private long coldMaxMegabytes;
+
+    @Autowired
+    private DemoCatalog demoCatalog;
+
+    @Autowired
+    private DiskSpaceAdmissionController diskSpaceAdmissionController;
+
+    // archive name -> size of the zip file, archives are only changed by the archiver and this engine
+    private final Map<String, Long> archiveSizes = new ConcurrentHashMap<>();
+
+    private record ArchiveStats(String name, ArchiveTier tier, long newestRecordedAt) {
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        adoptUncatalogedDemos();
+    }
+
+    @Scheduled(fixedDelayString = "${settings.retention.run-interval-minutes}", timeUnit = TimeUnit.MINUTES,
+            scheduler = SchedulingConfiguration.MAINTENANCE_SCHEDULER)
+    public void enforce() {
+        enforceLatest(null);
+        enforceArchives();
+    }
+
+    /**
+     * Deletes the oldest demos of the latest directory until it is within its count, byte and age limits. The
+     * given demo, usually the one that was just added, is never deleted.
+     */
+    public synchronized void enforceLatest(String protectedFileName) {
+        List<DemoCatalogEntry> latest = demoCatalog.entries().stream().filter(DemoCatalogEntry::inLatest).toList();
+        long maxBytes = latestMaxMegabytes * BYTES_PER_MEGABYTE;
+        long cutoff = cutoff(latestMaxAgeDays);
+        int count = latest.size();
+        long totalBytes = latest.stream().mapToLong(DemoCatalogEntry::sizeBytes).sum();
+
+        int deleted = 0;
+        for (DemoCatalogEntry entry : latest.stream().sorted(Comparator.comparingLong(DemoCatalogEntry::recordedAt)).toList()) {
+            boolean overLimit = count > maxLatestDemos || (maxBytes > 0 && totalBytes > maxBytes) || entry.recordedAt() < cutoff;
+            if (!overLimit) {
+                break; // the remaining demos are newer
+            }
+            if (entry.fileName().equals(protectedFileName)) {
+                continue;
+            }
+            try {
+                Files.deleteIfExists(Paths.get(latestDemosDirectory, entry.fileName()));
+                logger.info("Deleted file: {}", entry.fileName());
+            } catch (IOException e) {
+                logger.warn("Failed to delete file: {}", entry.fileName(), e);
+                continue;
+            }
+            demoCatalog.markInLatest(entry.fileName(), false);
+            if (!entry.isArchived() && !Files.exists(Paths.get(localDirectory, entry.fileName()))) {
+                // the archive of the demo was deleted before, this was its last copy
+                demoCatalog.remove(entry.fileName());
+            }
+            count--;
+            totalBytes -= entry.sizeBytes();
+            deleted++;
+        }
+        if (deleted > 0) {
+            logger.info("Deleted {} oldest file(s) in the latest demos directory, {} demos ({} MB) remain.", deleted,
+                    count, totalBytes / BYTES_PER_MEGABYTE);
+        }
+    }
+
+    /**
+     * Applies the age limit, tiering and the byte budgets to the archives, oldest archives first. Tiering is
+     * limited to a few archives per run, so a large backlog of old archives is worked off over several runs.
+     */
+    public synchronized void enforceArchives() {
+        List<ArchiveStats> archives = archiveStats();
+
+        long cutoff = cutoff(archiveMaxAgeDays);
+        for (ArchiveStats archive : archives) {
+            if (archive.newestRecordedAt() < cutoff) {
+                logger.info("Archive {} is older than {} days.", archive.name(), archiveMaxAgeDays);
+                deleteArchive(archive);
+            }
+        }
+
+        long tierCutoff = cutoff(tierAfterDays);
+        int tierOperations = 0;
+        for (ArchiveStats archive : archiveStats()) {
+            if (tierOperations >= maxTierOperationsPerRun) {
+                break;
+            }
+            if (archive.tier() != ArchiveTier.HOT || archive.newestRecordedAt() >= tierCutoff) {
+                continue;
+            }
+            if (tierAction == TierAction.RECOMPRESS) {
+                recompress(archive);
+            } else if (!hasColdDirectory()) {
+                logger.warn("Archive tiering is set to {} but no cold directory is configured.", tierAction);
+                break;
+            } else {
+                moveToCold(archive);
+            }
+            tierOperations++;
+        }
+
+        long maxArchiveBytes = archiveMaxMegabytes * BYTES_PER_MEGABYTE;
+        if (maxArchiveBytes > 0) {
+            List<ArchiveStats> hot = archiveStats().stream().filter(archive -> archive.tier() != ArchiveTier.COLD).toList();
+            long totalBytes = hot.stream().mapToLong(this::sizeOf).sum();
+            for (ArchiveStats archive : hot) {
+                if (totalBytes <= maxArchiveBytes) {
+                    break;
+                }
+                totalBytes -= sizeOf(archive);
+                logger.info("Archive directory is over its budget of {} MB.", archiveMaxMegabytes);
+                if (hasColdDirectory()) {
+                    moveToCold(archive);
+                } else {
+                    deleteArchive(archive);
+                }
+            }
+        }
+
+        long maxColdBytes = coldMaxMegabytes * BYTES_PER_MEGABYTE;
+        if (maxColdBytes > 0) {
+            List<ArchiveStats> cold = archiveStats().stream().filter(archive -> archive.tier() == ArchiveTier.COLD).toList();
+            long totalBytes = cold.stream().mapToLong(this::sizeOf).sum();
+            for (ArchiveStats archive : cold) {
+                if (totalBytes <= maxColdBytes) {
+                    break;
+                }
+                totalBytes -= sizeOf(archive);
+                logger.info("Cold directory is over its budget of {} MB.", coldMaxMegabytes);
+                deleteArchive(archive);
+            }
+        }
+    }
+
+    /**
+     * The archives known to the catalog, oldest first. An archive is as old as the newest demo in it.
+     */
+    private List<ArchiveStats> archiveStats() {
+        Map<String, ArchiveStats> archives = new HashMap<>();
+        for (DemoCatalogEntry entry : demoCatalog.entries()) {
+            if (entry.isArchived()) {
+                archives.merge(entry.archiveName(), new ArchiveStats(entry.archiveName(), entry.archiveTier(), entry.recordedAt()),
+                        (a, b) -> a.newestRecordedAt() >= b.newestRecordedAt() ? a : b);
+            }
+        }
+        return archives.values().stream().sorted(Comparator.comparingLong(ArchiveStats::newestRecordedAt)).toList();
+    }
+
+    private long sizeOf(ArchiveStats archive) {
+        return archiveSizes.computeIfAbsent(archive.name(), name -> {
+            try {
+                return Files.size(pathOf(archive));
+            } catch (IOException e) {
+                logger.warn("Failed to read the size of archive {}.", name, e);
+                return 0L;
+            }
+        });
+    }
+
+    private Path pathOf(ArchiveStats archive) {
+        return Paths.get(archive.tier() == ArchiveTier.COLD ? coldDirectory : archiveDirectory, archive.name());
+    }
+
+    private void deleteArchive(ArchiveStats archive) {
+        try {
+            Files.deleteIfExists(pathOf(archive));
+            logger.info("Deleted archive {} ({} tier).", archive.name(), archive.tier());
+        } catch (IOException e) {
+            logger.warn("Failed to delete archive {}.", archive.name(), e);
+            return;
+        }
+        archiveSizes.remove(archive.name());
+        demoCatalog.removeArchive(archive.name());
+    }
+
+    /**
+     * Rewrites the archive at the tier compression level into a temporary file that replaces the archive once it
+     * is complete, so the archive is never left half-written.
+     */
+    private void recompress(ArchiveStats archive) {
+        Path source = pathOf(archive);
+        Path temp = source.resolveSibling(archive.name() + ".tmp");
+        long sizeBefore = sizeOf(archive);
+        Optional<DiskSpaceReservation> space = diskSpaceAdmissionController.tryReserve(source.getParent(), sizeBefore,
+                "recompression of archive " + archive.name());
+        if (space.isEmpty()) {
+            return;
+        }
+        try (DiskSpaceReservation reservation = space.get()) {
+            try (ZipFile zip = new ZipFile(source.toFile());
+                 ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.setLevel(tierCompressionLevel);
+                Enumeration<? extends ZipEntry> entries = zip.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    // keep the modification times, extra fields and comment, only the compressed data is rewritten
+                    ZipEntry recompressed = new ZipEntry(entry);
+                    recompressed.setMethod(ZipEntry.DEFLATED);
+                    recompressed.setCompressedSize(-1);
+                    out.putNextEntry(recompressed);
+                    try (InputStream in = zip.getInputStream(entry)) {
+                        in.transferTo(out);
+                    }
+                    out.closeEntry();
+                }
+            }
+            Files.move(temp, source, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.error("Failed to recompress archive {}.", archive.name(), e);
+            deleteQuietly(temp);
+            return;
+        }
+        archiveSizes.remove(archive.name());
+        demoCatalog.markArchiveTier(archive.name(), ArchiveTier.RECOMPRESSED);
+        logger.info("Recompressed archive {} at level {}: {} MB -> {} MB.", archive.name(), tierCompressionLevel,
+                sizeBefore / BYTES_PER_MEGABYTE, sizeOf(archive) / BYTES_PER_MEGABYTE);
+    }
+
+    /**
+     * Moves the archive to the cold directory. If the cold directory is on another file system the archive is
+     * copied to a temporary file first, so the cold directory never contains a partial archive.
+     */
+    private void moveToCold(ArchiveStats archive) {
+        Path source = pathOf(archive);
+        Path target = Paths.get(coldDirectory, archive.name());
+        Path temp = target.resolveSibling(archive.name() + ".tmp");
+        try {
+            Files.createDirectories(target.getParent());
+        } catch (IOException e) {
+            logger.error("Failed to create the cold directory {}.", coldDirectory, e);
+            return;
+        }
+        Optional<DiskSpaceReservation> space = diskSpaceAdmissionController.tryReserve(target.getParent(), sizeOf(archive),
+                "move of archive " + archive.name() + " to the cold directory");
+        if (space.isEmpty()) {
+            return;
+        }
+        try (DiskSpaceReservation reservation = space.get()) {
+            try {
+                Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.copy(source, temp, StandardCopyOption.REPLACE_EXISTING);
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                Files.delete(source);
+            }
+        } catch (IOException e) {
+            logger.error("Failed to move archive {} to the cold directory.", archive.name(), e);
+            deleteQuietly(temp);
+            return;
+        }
+        demoCatalog.markArchiveTier(archive.name(), ArchiveTier.COLD);
+        logger.info("Moved archive {} to the cold directory {}.", archive.name(), coldDirectory);
+    }
+
+    private boolean hasColdDirectory() {
+        return coldDirectory != null && !coldDirectory.isBlank();
+    }
+
+    private static long cutoff(int days) {
+        if (days <= 0) {
+            return Long.MIN_VALUE;
+        }
+        return LocalDateTime.now(ZoneOffset.UTC).minus(days, ChronoUnit.DAYS).toEpochSecond(ZoneOffset.UTC);
+    }
+
+    private void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            logger.warn("Failed to delete temporary file: {}", path, e);
+        }
+    }
+
+    /**
+     * Adds demos from the archive, cold, local and latest directories that the catalog does not know yet, and
+     * corrects latest markers of demos that were deleted by hand. Runs once on startup.
+     */
+    private void adoptUncatalogedDemos() throws IOException {
+        int adopted = 0;
+        Set<String> knownArchives = demoCatalog.entries().stream()
+                .map(DemoCatalogEntry::archiveName)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        adopted += adoptArchives(Paths.get(archiveDirectory), ArchiveTier.HOT, knownArchives);
+        if (hasColdDirectory()) {
+            adopted += adoptArchives(Paths.get(coldDirectory), ArchiveTier.COLD, knownArchives);
+        }
+
+        for (Path demo : listDemos(Paths.get(localDirectory))) {
+            if (demoCatalog.get(demo.getFileName().toString()).isEmpty()) {
+                demoCatalog.record(null, demo, recordedAt(demo));
+                adopted++;
+            }
+        }
+
+        Path latest = Paths.get(latestDemosDirectory);
+        for (Path demo : listDemos(latest)) {
+            String fileName = demo.getFileName().toString();
+            if (demoCatalog.get(fileName).isEmpty()) {
+                demoCatalog.record(null, demo, recordedAt(demo));
+                adopted++;
+            }
+            demoCatalog.markInLatest(fileName, true);
+        }
+        for (DemoCatalogEntry entry : demoCatalog.entries()) {
+            if (entry.inLatest() && !Files.exists(latest.resolve(entry.fileName()))) {
+                demoCatalog.markInLatest(entry.fileName(), false);
+            }
+        }
+
+        if (adopted > 0) {
+            logger.info("Adopted {} demos into the catalog that were stored before it existed.", adopted);
+        }
+    }
+
+    private int adoptArchives(Path directory, ArchiveTier tier, Set<String> knownArchives) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return 0;
+        }
+        int adopted = 0;
+        List<Path> archives;
+        try (Stream<Path> paths = Files.list(directory)) {
+            archives = paths.filter(path -> path.getFileName().toString().endsWith(".zip")).toList();
+        }
+        for (Path archive : archives) {
+            String archiveName = archive.getFileName().toString();
+            if (knownArchives.contains(archiveName)) {
+                continue;
+            }
+            try (ZipFile zip = new ZipFile(archive.toFile())) {
+                Enumeration<? extends ZipEntry> entries = zip.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    DemoCatalogEntry demo = new DemoCatalogEntry(entry.getName(), null, recordedAt(entry.getName(),
+                            Files.getLastModifiedTime(archive).toMillis() / 1000), entry.getSize(), null, null, 0, 0,
+                            archiveName, tier, false);
+                    if (demoCatalog.addIfAbsent(demo)) {
+                        adopted++;
+                    }
+                }
+            } catch (IOException e) {
+                logger.warn("Skipping unreadable archive {}: {}", archiveName, e.getMessage());
+            }
+        }
+        return adopted;
+    }
+
+    private List<Path> listDemos(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return List.of();
+        }
+        try (Stream<Path> paths = Files.list(directory)) {
+            return paths.filter(path -> path.getFileName().toString().endsWith(allowedFileEnding) && Files.isRegularFile(path)).toList();
+        }
+    }
+
+    private static long recordedAt(Path demo) throws IOException {
+        return recordedAt(demo.getFileName().toString(), Files.getLastModifiedTime(demo).toMillis() / 1000);
+    }
+
+    private static long recordedAt(String fileName, long fallbackEpochSecond) {
+        String[] split = fileName.split("_");
+        if (split.length < 2) {
+            return fallbackEpochSecond;
+        }
+        try {
+            return LocalDateTime.parse(split[0] + "_" + split[1], DEMO_DATE_FORMAT).toEpochSecond(ZoneOffset.UTC);
+        } catch (DateTimeParseException e) {
+            return fallbackEpochSecond;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package at.emielregis.dathostdemomanager.retention;
+
+/**
+ * What happens to an archive once all of its demos are older than the tiering age.
+ */
+public enum TierAction {
+    /**
+     * Rewrite the archive in place at the tier compression level.
+     */
+    RECOMPRESS,
+    /**
+     * Move the archive to the cold directory, e.g. a larger and slower disk.
+     */
+    MOVE
+}
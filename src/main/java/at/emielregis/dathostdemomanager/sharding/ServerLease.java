@@ -0,0 +1,29 @@
+package at.emielregis.dathostdemomanager.sharding;
+
+import java.util.Optional;
+
+/**
+ * Content of a lease file: the instance that owns the server and until when. An empty file is a free lease.
+ */
+public record ServerLease(String owner, long expiresAt) {
+
+    static Optional<ServerLease> parse(String content) {
+        String[] lines = content.strip().split("\n");
+        if (lines.length < 2) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(new ServerLease(lines[0].strip(), Long.parseLong(lines[1].strip())));
+        } catch (NumberFormatException e) {
+            return Optional.empty();
+        }
+    }
+
+    String format() {
+        return owner + "\n" + expiresAt + "\n";
+    }
+
+    boolean isExpired(long now) {
+        return expiresAt <= now;
+    }
+}
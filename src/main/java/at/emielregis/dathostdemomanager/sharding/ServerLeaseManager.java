@@ -0,0 +1,365 @@
+package at.emielregis.dathostdemomanager.sharding;
+
+import at.emielregis.dathostdemomanager.SchedulingConfiguration;
+import at.emielregis.dathostdemomanager.ftp.FtpClientData;
+import at.emielregis.dathostdemomanager.ftp.ServerInventory;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Optional horizontal mode: several instances share one server inventory and split the servers between them through
+ * lease files in a shared directory. Every server has a lease file that names its owner and an expiry time; it is only
+ * read and written while holding a {@link FileChannel#lock() file lock}, so two instances can never own a server at
+ * the same time. Every instance also writes a heartbeat file, the number of live instances gives the fair share of
+ * servers per instance.
+ * <p>
+ * On every heartbeat an instance renews its leases, gives up servers above its fair share and claims free or expired
+ * leases up to it. Servers are preferred by rendezvous hashing, so the assignment stays stable while the set of
+ * instances does not change. When an instance dies its leases expire after {@code lease-seconds} and are taken over
+ * by the others; an instance that shuts down cleanly releases them right away. A server is only processed while its
+ * lease is held, a run that loses the lease stops after the current demo.
+ * <p>
+ * Expiry times are compared across hosts, so the clocks of the instances must be in sync to well within the lease
+ * time.
+ */
+@Component
+public class ServerLeaseManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(ServerLeaseManager.class);
+
+    private static final String LEASE_SUFFIX = ".lease";
+
+    // file locks are held on behalf of the whole JVM, instances running in one JVM (like the load harness) would get an
+    // OverlappingFileLockException instead of waiting for each other
+    private static final Object JVM_LOCK = new Object();
+
+    @Value("${settings.sharding.enabled}")
+    private boolean enabled;
+
+    @Value("${settings.sharding.directory}")
+    private String directory;
+
+    @Value("${settings.sharding.instance-id}")
+    private String configuredInstanceId;
+
+    @Value("${settings.sharding.heartbeat-seconds}")
+    private long heartbeatSeconds;
+
+    @Value("${settings.sharding.lease-seconds}")
+    private long leaseSeconds;
+
+    @Autowired
+    private ServerInventory serverInventory;
+
+    public record LeaseInfo(String serverId, String owner, Instant expiresAt) {
+    }
+
+    public record LeaseStatus(boolean enabled, String instanceId, int liveInstances, int fairShare,
+                              List<String> heldServers, List<LeaseInfo> leases) {
+    }
+
+    private String instanceId;
+    private Path leaseDirectory;
+    private Path instanceDirectory;
+    private long leaseMillis;
+
+    // server id -> time until which this instance owns the server, as last written to its lease file
+    private final Map<String, Long> held = new HashMap<>();
+    private final Map<String, Integer> runningServers = new HashMap<>();
+    private int liveInstances = 1;
+    private int fairShare;
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        if (directory == null || directory.isBlank()) {
+            throw new IllegalStateException("settings.sharding.directory must be set when sharding is enabled");
+        }
+        if (leaseSeconds < heartbeatSeconds * 2) {
+            throw new IllegalStateException("settings.sharding.lease-seconds must be at least twice the heartbeat interval");
+        }
+        instanceId = fileName(configuredInstanceId == null || configuredInstanceId.isBlank() ? defaultInstanceId() : configuredInstanceId);
+        leaseDirectory = Files.createDirectories(Paths.get(directory, "leases"));
+        instanceDirectory = Files.createDirectories(Paths.get(directory, "instances"));
+        leaseMillis = TimeUnit.SECONDS.toMillis(leaseSeconds);
+        logger.info("Sharding enabled: instance {} shares servers through {} (heartbeat {} s, lease {} s).",
+                instanceId, directory, heartbeatSeconds, leaseSeconds);
+        heartbeat();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns whether this instance may process the server now. Every successful call must be followed by
+     * {@link #endRun(String)}; a server with a running job is not given up during rebalancing.
+     */
+    public synchronized boolean beginRun(String serverId) {
+        if (!enabled) {
+            return true;
+        }
+        if (!holds(serverId)) {
+            logger.debug("Skipping server {}, it is leased by another instance.", serverId);
+            return false;
+        }
+        runningServers.merge(serverId, 1, Integer::sum);
+        return true;
+    }
+
+    public synchronized void endRun(String serverId) {
+        if (enabled) {
+            runningServers.computeIfPresent(serverId, (id, count) -> count > 1 ? count - 1 : null);
+        }
+    }
+
+    /**
+     * Whether this instance still owns the server. Long runs check this between demos, a lease that could not be
+     * renewed in time may already belong to another instance.
+     */
+    public synchronized boolean holds(String serverId) {
+        if (!enabled) {
+            return true;
+        }
+        Long ownedUntil = held.get(serverId);
+        return ownedUntil != null && ownedUntil > System.currentTimeMillis();
+    }
+
+    @Scheduled(fixedDelayString = "${settings.sharding.heartbeat-seconds}", timeUnit = TimeUnit.SECONDS,
+            scheduler = SchedulingConfiguration.LEASE_HEARTBEAT_SCHEDULER)
+    public synchronized void heartbeat() {
+        if (!enabled) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        try {
+            writeInstanceHeartbeat(now);
+            liveInstances = countLiveInstances(now);
+        } catch (IOException e) {
+            // without a heartbeat the other instances may take over, the leases are still renewed while they last
+            logger.error("Failed to write the heartbeat of instance {}", instanceId, e);
+        }
+
+        List<String> serverIds = serverInventory.servers().stream().map(FtpClientData::getServerId).toList();
+        fairShare = (serverIds.size() + liveInstances - 1) / Math.max(liveInstances, 1);
+
+        for (String serverId : new ArrayList<>(held.keySet())) {
+            if (!serverIds.contains(serverId) && !runningServers.containsKey(serverId)) {
+                release(serverId);
+            } else if (!renew(serverId, now)) {
+                held.remove(serverId);
+                logger.warn("Instance {} lost the lease of server {}.", instanceId, serverId);
+            }
+        }
+
+        // the servers this instance prefers least are given up first, and the ones it prefers most are claimed first
+        List<String> excess = held.keySet().stream()
+                .filter(serverId -> !runningServers.containsKey(serverId))
+                .sorted(Comparator.comparingLong(this::preference))
+                .toList();
+        for (int i = 0; i < excess.size() && held.size() > fairShare; i++) {
+            release(excess.get(i));
+        }
+
+        List<String> candidates = serverIds.stream()
+                .filter(serverId -> !held.containsKey(serverId))
+                .sorted(Comparator.comparingLong(this::preference).reversed())
+                .toList();
+        for (String serverId : candidates) {
+            if (held.size() >= fairShare) {
+                break;
+            }
+            claim(serverId, now);
+        }
+    }
+
+    public synchronized LeaseStatus status() {
+        if (!enabled) {
+            return new LeaseStatus(false, null, 1, 0, List.of(), List.of());
+        }
+        List<LeaseInfo> leases = new ArrayList<>();
+        try (Stream<Path> files = Files.list(leaseDirectory)) {
+            for (Path file : files.filter(file -> file.getFileName().toString().endsWith(LEASE_SUFFIX)).sorted().toList()) {
+                String serverId = file.getFileName().toString();
+                serverId = serverId.substring(0, serverId.length() - LEASE_SUFFIX.length());
+                // read without the lock, the view may be a moment old but is never used for decisions
+                Optional<ServerLease> lease = ServerLease.parse(Files.readString(file));
+                leases.add(new LeaseInfo(serverId, lease.map(ServerLease::owner).orElse(null),
+                        lease.map(value -> Instant.ofEpochMilli(value.expiresAt())).orElse(null)));
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to list the leases in {}", leaseDirectory, e);
+        }
+        return new LeaseStatus(true, instanceId, liveInstances, fairShare, held.keySet().stream().sorted().toList(), leases);
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        if (!enabled) {
+            return;
+        }
+        // released leases are taken over on the next heartbeat of the other instances instead of after the expiry
+        for (String serverId : new ArrayList<>(held.keySet())) {
+            release(serverId);
+        }
+        try {
+            Files.deleteIfExists(instanceDirectory.resolve(instanceId));
+        } catch (IOException e) {
+            logger.warn("Failed to delete the heartbeat file of instance {}", instanceId, e);
+        }
+        logger.info("Instance {} released its leases.", instanceId);
+    }
+
+    private void claim(String serverId, long now) {
+        long expiresAt = now + leaseMillis;
+        try {
+            ServerLease lease = updateLease(serverId, current ->
+                    current == null || current.isExpired(now) || current.owner().equals(instanceId)
+                            ? new ServerLease(instanceId, expiresAt) : current);
+            if (lease != null && lease.owner().equals(instanceId)) {
+                held.put(serverId, expiresAt);
+                logger.info("Instance {} claimed server {}.", instanceId, serverId);
+            }
+        } catch (IOException e) {
+            logger.error("Failed to claim the lease of server {}", serverId, e);
+        }
+    }
+
+    private boolean renew(String serverId, long now) {
+        long expiresAt = now + leaseMillis;
+        try {
+            ServerLease lease = updateLease(serverId, current ->
+                    current != null && current.owner().equals(instanceId) ? new ServerLease(instanceId, expiresAt) : current);
+            if (lease == null || !lease.owner().equals(instanceId)) {
+                return false;
+            }
+            held.put(serverId, expiresAt);
+            return true;
+        } catch (IOException e) {
+            // the lease file still has the previous expiry, the server is only given up once that has passed
+            logger.error("Failed to renew the lease of server {}", serverId, e);
+            return held.getOrDefault(serverId, 0L) > now;
+        }
+    }
+
+    private void release(String serverId) {
+        held.remove(serverId);
+        try {
+            updateLease(serverId, current -> current != null && current.owner().equals(instanceId) ? null : current);
+            logger.info("Instance {} released server {}.", instanceId, serverId);
+        } catch (IOException e) {
+            logger.error("Failed to release the lease of server {}, it is taken over once it expires.", serverId, e);
+        }
+    }
+
+    /**
+     * Reads and rewrites the lease file of the server under an exclusive file lock and returns the lease as it is
+     * afterwards. The update gets {@code null} for a free lease and returns {@code null} to free it.
+     */
+    private ServerLease updateLease(String serverId, UnaryOperator<ServerLease> update) throws IOException {
+        Path file = leaseDirectory.resolve(fileName(serverId) + LEASE_SUFFIX);
+        synchronized (JVM_LOCK) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                 FileLock lock = channel.lock()) {
+                ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(channel.size(), 4096));
+                int read = 0;
+                while (buffer.hasRemaining() && read >= 0) {
+                    read = channel.read(buffer, buffer.position());
+                }
+                ServerLease current = ServerLease.parse(new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8)).orElse(null);
+
+                ServerLease next = update.apply(current);
+                if (next != current) {
+                    channel.truncate(0);
+                    if (next != null) {
+                        channel.write(ByteBuffer.wrap(next.format().getBytes(StandardCharsets.UTF_8)), 0);
+                    }
+                    channel.force(false);
+                }
+                return next;
+            }
+        }
+    }
+
+    private void writeInstanceHeartbeat(long now) throws IOException {
+        Path file = instanceDirectory.resolve(instanceId);
+        Path temp = instanceDirectory.resolve(instanceId + ".tmp");
+        Files.writeString(temp, Long.toString(now));
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private int countLiveInstances(long now) throws IOException {
+        Set<String> live;
+        try (Stream<Path> files = Files.list(instanceDirectory)) {
+            live = files.filter(file -> !file.getFileName().toString().endsWith(".tmp"))
+                    .filter(file -> lastHeartbeat(file) + leaseMillis > now)
+                    .map(file -> file.getFileName().toString())
+                    .collect(Collectors.toSet());
+        }
+        live.add(instanceId);
+        if (live.size() != liveInstances) {
+            logger.info("{} live instances: {}", live.size(), live.stream().sorted().toList());
+        }
+        return live.size();
+    }
+
+    private long lastHeartbeat(Path file) {
+        try {
+            return Long.parseLong(Files.readString(file).strip());
+        } catch (IOException | NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private long preference(String serverId) {
+        return UUID.nameUUIDFromBytes((instanceId + "/" + serverId).getBytes(StandardCharsets.UTF_8)).getMostSignificantBits();
+    }
+
+    private static String defaultInstanceId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            host = "instance";
+        }
+        return host + "-" + ProcessHandle.current().pid();
+    }
+
+    private static String fileName(String name) {
+        return name.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+}
@@ -0,0 +1,117 @@
+package at.emielregis.dathostdemomanager.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Admission control for everything that writes large files: demo downloads, archive builds and archive tiering.
+ * Before starting, the work reserves the number of bytes it is going to write on the file store of its target
+ * directory. A reservation is only granted if the usable space minus all outstanding reservations stays above the
+ * configured headroom; otherwise the work is deferred to a later run instead of filling the disk and leaving
+ * half-written temporary files behind.
+ * <p>
+ * A reservation counts in full until it is closed, even though the bytes written so far already show up in the
+ * usable space. This overestimates the space in use by the running transfers, which errs on the safe side.
+ */
+@Component
+public class DiskSpaceAdmissionController {
+
+    private static final Logger logger = LoggerFactory.getLogger(DiskSpaceAdmissionController.class);
+
+    private static final long BYTES_PER_MEGABYTE = 1024 * 1024;
+
+    @Value("${settings.disk-space.min-free-megabytes}")
+    private long minFreeMegabytes;
+
+    private final Map<FileStore, StoreState> stores = new ConcurrentHashMap<>();
+
+    public record StoreMetrics(String store, long usableBytes, long reservedBytes, int activeReservations,
+                               long minFreeBytes, long granted, long denied, long grantedBytes) {
+    }
+
+    static class StoreState {
+        private final FileStore store;
+        private long reservedBytes;
+        private int activeReservations;
+        private long granted;
+        private long denied;
+        private long grantedBytes;
+
+        StoreState(FileStore store) {
+            this.store = store;
+        }
+    }
+
+    /**
+     * Reserves space for writing {@code bytes} bytes into the directory, or returns an empty optional if that would
+     * eat into the headroom. Sizes that are not known (negative) only check the headroom.
+     */
+    public Optional<DiskSpaceReservation> tryReserve(Path directory, long bytes, String purpose) {
+        long requested = Math.max(bytes, 0);
+        FileStore fileStore;
+        try {
+            fileStore = Files.getFileStore(directory);
+        } catch (IOException e) {
+            // without a file store there is nothing to account against, the write itself will report the problem
+            logger.warn("Cannot determine the file store of {}, admitting {} without a reservation.", directory, purpose, e);
+            return Optional.of(new DiskSpaceReservation(this, null, requested));
+        }
+
+        StoreState state = stores.computeIfAbsent(fileStore, StoreState::new);
+        synchronized (state) {
+            long usable;
+            try {
+                usable = fileStore.getUsableSpace();
+            } catch (IOException e) {
+                logger.warn("Cannot read the usable space of {}, admitting {} without a reservation.", fileStore, purpose, e);
+                return Optional.of(new DiskSpaceReservation(this, null, requested));
+            }
+            long available = usable - state.reservedBytes - minFreeMegabytes * BYTES_PER_MEGABYTE;
+            if (requested > available) {
+                state.denied++;
+                logger.warn("Deferring {}: needs {} MB on {}, only {} MB available above the {} MB headroom ({} MB reserved).",
+                        purpose, requested / BYTES_PER_MEGABYTE, fileStore, Math.max(available, 0) / BYTES_PER_MEGABYTE,
+                        minFreeMegabytes, state.reservedBytes / BYTES_PER_MEGABYTE);
+                return Optional.empty();
+            }
+            state.reservedBytes += requested;
+            state.activeReservations++;
+            state.granted++;
+            state.grantedBytes += requested;
+        }
+        return Optional.of(new DiskSpaceReservation(this, state, requested));
+    }
+
+    public List<StoreMetrics> metrics() {
+        return stores.values().stream().map(state -> {
+            long usable;
+            try {
+                usable = state.store.getUsableSpace();
+            } catch (IOException e) {
+                usable = -1;
+            }
+            synchronized (state) {
+                return new StoreMetrics(state.store.toString(), usable, state.reservedBytes, state.activeReservations,
+                        minFreeMegabytes * BYTES_PER_MEGABYTE, state.granted, state.denied, state.grantedBytes);
+            }
+        }).toList();
+    }
+
+    void release(StoreState state, long bytes) {
+        synchronized (state) {
+            state.reservedBytes -= bytes;
+            state.activeReservations--;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package at.emielregis.dathostdemomanager.storage;
+
+/**
+ * Disk space held for a transfer or an archive build until it is closed. Closing twice is harmless.
+ */
+public class DiskSpaceReservation implements AutoCloseable {
+
+    private final DiskSpaceAdmissionController controller;
+    private final DiskSpaceAdmissionController.StoreState store;
+    private final long bytes;
+    private boolean released;
+
+    DiskSpaceReservation(DiskSpaceAdmissionController controller, DiskSpaceAdmissionController.StoreState store, long bytes) {
+        this.controller = controller;
+        this.store = store;
+        this.bytes = bytes;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (!released) {
+            released = true;
+            if (store != null) {
+                controller.release(store, bytes);
+            }
+        }
+    }
+}
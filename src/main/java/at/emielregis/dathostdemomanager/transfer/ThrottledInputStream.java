@@ -0,0 +1,64 @@
+package at.emielregis.dathostdemomanager.transfer;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.List;
+
+/**
+ * Input stream that charges every read against one or more {@link TokenBucket}s and counts the bytes read.
+ */
+public class ThrottledInputStream extends FilterInputStream {
+
+    private final List<TokenBucket> buckets;
+    private long bytesRead;
+
+    public ThrottledInputStream(InputStream in, TokenBucket... buckets) {
+        super(in);
+        this.buckets = List.of(buckets);
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0) {
+            charge(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = super.read(b, off, len);
+        if (n > 0) {
+            charge(n);
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        if (skipped > 0) {
+            charge(skipped);
+        }
+        return skipped;
+    }
+
+    private void charge(long bytes) throws IOException {
+        bytesRead += bytes;
+        try {
+            for (TokenBucket bucket : buckets) {
+                bucket.acquire(bytes);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for bandwidth");
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package at.emielregis.dathostdemomanager.transfer;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Output stream that charges every write against one or more {@link TokenBucket}s and counts the bytes written.
+ * Used as the local sink of FTP downloads, which only accept an output stream.
+ */
+public class ThrottledOutputStream extends FilterOutputStream {
+
+    private final List<TokenBucket> buckets;
+    private long bytesWritten;
+
+    public ThrottledOutputStream(OutputStream out, TokenBucket... buckets) {
+        super(out);
+        this.buckets = List.of(buckets);
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        charge(1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        charge(len);
+    }
+
+    private void charge(long bytes) throws IOException {
+        bytesWritten += bytes;
+        try {
+            for (TokenBucket bucket : buckets) {
+                bucket.acquire(bytes);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for bandwidth");
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package at.emielregis.dathostdemomanager.transfer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket rate limiter measured in bytes per second. Callers acquire the number of bytes they transferred
+ * and are put to sleep for as long as needed to stay within the rate. The bucket can hold up to one second worth
+ * of tokens, so short bursts are allowed. A rate of zero or less disables limiting.
+ */
+public class TokenBucket {
+
+    private long bytesPerSecond;
+    private double tokens;
+    private long lastRefillNanos;
+
+    public TokenBucket(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.tokens = Math.max(bytesPerSecond, 0);
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    public synchronized long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * Changes the rate. Tokens already in the bucket are capped to the new burst size, so lowering the rate
+     * takes effect immediately.
+     */
+    public synchronized void setBytesPerSecond(long bytesPerSecond) {
+        refill();
+        this.bytesPerSecond = bytesPerSecond;
+        if (bytesPerSecond > 0) {
+            tokens = Math.min(tokens, bytesPerSecond);
+        }
+    }
+
+    public void acquire(long bytes) throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            if (bytesPerSecond <= 0) {
+                return;
+            }
+            refill();
+            // the bucket may go into debt, later callers then wait until the debt has been paid off
+            tokens -= bytes;
+            waitNanos = tokens >= 0 ? 0 : (long) (-tokens / bytesPerSecond * TimeUnit.SECONDS.toNanos(1));
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        if (bytesPerSecond > 0) {
+            double elapsedSeconds = (now - lastRefillNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+            tokens = Math.min(bytesPerSecond, tokens + elapsedSeconds * bytesPerSecond);
+        } else {
+            tokens = 0;
+        }
+        lastRefillNanos = now;
+    }
+}
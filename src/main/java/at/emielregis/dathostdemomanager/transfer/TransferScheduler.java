@@ -0,0 +1,167 @@
+package at.emielregis.dathostdemomanager.transfer;
+
+import at.emielregis.dathostdemomanager.SchedulingConfiguration;
+import at.emielregis.dathostdemomanager.dathost.DatHostServerAccessor;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bandwidth control for demo downloads. All downloads share a global token bucket, and every server has its own
+ * bucket whose rate follows the number of players on the server: transfers are throttled hard while a match is
+ * running, so they do not hurt the tick rate of the game server, and run at full speed while the server is empty.
+ */
+@Component
+public class TransferScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(TransferScheduler.class);
+
+    @Value("${settings.transfer.max-kilobytes-per-second}")
+    private long maxKilobytesPerSecond;
+
+    @Value("${settings.transfer.live-match-kilobytes-per-second}")
+    private long liveMatchKilobytesPerSecond;
+
+    @Value("${settings.transfer.empty-server-kilobytes-per-second}")
+    private long emptyServerKilobytesPerSecond;
+
+    @Value("${settings.transfer.player-check-interval-seconds}")
+    private long playerCheckIntervalSeconds;
+
+    @Autowired
+    private DatHostServerAccessor datHostServerAccessor;
+
+    private TokenBucket globalBucket;
+    private final Map<String, TokenBucket> serverBuckets = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> activeTransfers = new ConcurrentHashMap<>();
+    private final Map<String, Long> lastPlayerChecks = new ConcurrentHashMap<>();
+    private final Set<String> drainingServers = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    public void init() {
+        globalBucket = new TokenBucket(maxKilobytesPerSecond * 1024);
+    }
+
+    /**
+     * Wraps the sink of a download from the given server so that it is throttled by the global and the server
+     * bucket. The server rate is refreshed unless it was checked recently, and then periodically for as long as
+     * the stream is open.
+     */
+    public OutputStream throttle(String serverId, OutputStream out) {
+        activeTransfers.compute(serverId, (id, count) -> {
+            AtomicInteger transfers = count != null ? count : new AtomicInteger();
+            transfers.incrementAndGet();
+            return transfers;
+        });
+        long lastCheck = lastPlayerChecks.getOrDefault(serverId, 0L);
+        if (System.currentTimeMillis() - lastCheck >= TimeUnit.SECONDS.toMillis(playerCheckIntervalSeconds)) {
+            updateServerRate(serverId);
+        }
+        return new ServerTransferStream(serverId, out);
+    }
+
+    @Scheduled(fixedDelayString = "${settings.transfer.player-check-interval-seconds}", timeUnit = TimeUnit.SECONDS,
+            scheduler = SchedulingConfiguration.TRANSFER_RATE_SCHEDULER)
+    public void refreshActiveServerRates() {
+        activeTransfers.forEach((serverId, count) -> {
+            if (count.get() > 0) {
+                updateServerRate(serverId);
+            }
+        });
+    }
+
+    /**
+     * Forgets the bucket and the player checks of a server that was removed from the inventory. Transfers from the
+     * server that are still running keep being throttled and refreshed; the state is dropped when the last one ends.
+     */
+    public void removeServer(String serverId) {
+        drainingServers.add(serverId);
+        dropIfDrained(serverId);
+    }
+
+    /**
+     * Keeps the transfer state of a server that is added to the inventory again while its transfers from before the
+     * removal are still running.
+     */
+    public void addServer(String serverId) {
+        if (drainingServers.remove(serverId)) {
+            logger.info("Server {} was added again, keeping its transfer state.", serverId);
+        }
+    }
+
+    private void dropIfDrained(String serverId) {
+        if (!drainingServers.contains(serverId)) {
+            return;
+        }
+        if (activeTransfers.computeIfPresent(serverId, (id, count) -> count.get() == 0 ? null : count) == null) {
+            drainingServers.remove(serverId);
+            serverBuckets.remove(serverId);
+            lastPlayerChecks.remove(serverId);
+            logger.info("Dropped the transfer state of removed server {}.", serverId);
+        }
+    }
+
+    private void updateServerRate(String serverId) {
+        lastPlayerChecks.put(serverId, System.currentTimeMillis());
+        int players = getPlayersOnline(serverId);
+        // an unknown player count is treated like a live match, the server must not suffer from a failed lookup
+        long kilobytesPerSecond = players == 0 ? emptyServerKilobytesPerSecond : liveMatchKilobytesPerSecond;
+        TokenBucket bucket = bucketFor(serverId);
+        long bytesPerSecond = kilobytesPerSecond * 1024;
+        if (bucket.getBytesPerSecond() != bytesPerSecond) {
+            bucket.setBytesPerSecond(bytesPerSecond);
+            logger.info("Transfer rate for server {} set to {} KB/s ({} players online).", serverId,
+                    kilobytesPerSecond > 0 ? kilobytesPerSecond : "unlimited", players >= 0 ? players : "unknown");
+        }
+    }
+
+    private int getPlayersOnline(String serverId) {
+        try {
+            DatHostServerAccessor.ServerStatus status = datHostServerAccessor.getServerStatus(serverId);
+            return status.running() ? status.playersOnline() : 0;
+        } catch (Exception e) {
+            logger.warn("Failed to get the player count of server {}: {}", serverId, e.getMessage());
+            return -1;
+        }
+    }
+
+    private TokenBucket bucketFor(String serverId) {
+        return serverBuckets.computeIfAbsent(serverId, id -> new TokenBucket(liveMatchKilobytesPerSecond * 1024));
+    }
+
+    private class ServerTransferStream extends ThrottledOutputStream {
+
+        private final String serverId;
+        private boolean closed;
+
+        ServerTransferStream(String serverId, OutputStream out) {
+            super(out, globalBucket, bucketFor(serverId));
+            this.serverId = serverId;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                activeTransfers.computeIfPresent(serverId, (id, count) -> {
+                    count.decrementAndGet();
+                    return count;
+                });
+                dropIfDrained(serverId);
+            }
+            super.close();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package at.emielregis.dathostdemomanager.workshop;
+
+import at.emielregis.dathostdemomanager.transfer.ThrottledInputStream;
+import at.emielregis.dathostdemomanager.transfer.TokenBucket;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Downloads workshop preview images on a bounded pool of worker threads. All downloads share one bandwidth
+ * limit, and every image is written through {@link WorkshopImageStore}, which only ever moves complete files
+ * into the image directory.
+ */
+@Component
+public class ImageFetchPipeline {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImageFetchPipeline.class);
+
+    @Value("${settings.image-fetch.concurrency}")
+    private int concurrency;
+
+    @Value("${settings.image-fetch.max-kilobytes-per-second}")
+    private long maxKilobytesPerSecond;
+
+    @Autowired
+    private OkHttpClient httpClient;
+
+    @Autowired
+    private WorkshopImageStore imageStore;
+
+    private ExecutorService executor;
+    private TokenBucket bandwidthLimit;
+
+    public record ImageFetchResult(String mapId, boolean success, boolean fromCache, long bytes, long latencyMillis) {
+    }
+
+    public record ImageFetchReport(int images, int failed, long totalBytes, long elapsedMillis,
+                                   double kilobytesPerSecond, List<ImageFetchResult> results) {
+    }
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "image-fetch-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        executor = Executors.newFixedThreadPool(concurrency, threadFactory);
+        bandwidthLimit = new TokenBucket(maxKilobytesPerSecond * 1024);
+        logger.info("Image fetch pipeline started with {} workers and a limit of {} KB/s.", concurrency,
+                maxKilobytesPerSecond > 0 ? maxKilobytesPerSecond : "unlimited");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Queues the preview image of the map for download into the given collection. The returned future never
+     * completes exceptionally, failures are reported through {@link ImageFetchResult#success()}.
+     */
+    public CompletableFuture<ImageFetchResult> submit(String collectionId, PublishedMap map) {
+        return CompletableFuture.supplyAsync(() -> fetch(collectionId, map), executor);
+    }
+
+    /**
+     * Waits for all given downloads and summarizes them.
+     */
+    public ImageFetchReport awaitAll(List<CompletableFuture<ImageFetchResult>> futures, long startNanos) {
+        List<ImageFetchResult> results = futures.stream().map(CompletableFuture::join).toList();
+        long elapsedMillis = Math.max(1, (System.nanoTime() - startNanos) / 1_000_000);
+        long totalBytes = results.stream().mapToLong(ImageFetchResult::bytes).sum();
+        int failed = (int) results.stream().filter(result -> !result.success()).count();
+        double kilobytesPerSecond = totalBytes / 1024.0 / (elapsedMillis / 1000.0);
+        logger.info("Fetched {} images ({} failed, {} bytes) in {} ms, {} KB/s.",
+                results.size(), failed, totalBytes, elapsedMillis, String.format("%.1f", kilobytesPerSecond));
+        return new ImageFetchReport(results.size(), failed, totalBytes, elapsedMillis, kilobytesPerSecond, results);
+    }
+
+    private ImageFetchResult fetch(String collectionId, PublishedMap map) {
+        long start = System.nanoTime();
+        String displayName = map.name() + " (" + map.mapType() + ")";
+        try {
+            Optional<WorkshopImageStore.ImageValidators> stored = imageStore.validators(map.previewUrl());
+            Request.Builder request = new Request.Builder().url(map.previewUrl()).get();
+            stored.ifPresent(validators -> {
+                if (validators.etag() != null) {
+                    request.header("If-None-Match", validators.etag());
+                }
+                if (validators.lastModified() != null) {
+                    request.header("If-Modified-Since", validators.lastModified());
+                }
+            });
+            try (Response response = httpClient.newCall(request.build()).execute()) {
+                // an unchanged image is taken from the blob store, the response has no body to download
+                if (response.code() == 304 && stored.isPresent()) {
+                    logger.info("Revalidated stored image: {}", map.previewUrl());
+                    imageStore.addToCollection(collectionId, map.id(), displayName, stored.get().hash());
+                    return new ImageFetchResult(map.id(), true, true, 0, (System.nanoTime() - start) / 1_000_000);
+                }
+                if (!response.isSuccessful()) throw new IOException("Unexpected code " + response);
+                try (ThrottledInputStream in = new ThrottledInputStream(response.body().byteStream(), bandwidthLimit)) {
+                    String hash = imageStore.store(in);
+                    imageStore.recordValidators(map.previewUrl(), response.header("ETag"), response.header("Last-Modified"), hash);
+                    imageStore.addToCollection(collectionId, map.id(), displayName, hash);
+                    long latencyMillis = (System.nanoTime() - start) / 1_000_000;
+                    logger.info("Downloaded image for map: {} in {} ms", map.name(), latencyMillis);
+                    return new ImageFetchResult(map.id(), true, false, in.getBytesRead(), latencyMillis);
+                }
+            }
+        } catch (Exception e) {
+            logger.error("Failed to download image for map: {}", map.name(), e);
+            return new ImageFetchResult(map.id(), false, false, 0, (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+}
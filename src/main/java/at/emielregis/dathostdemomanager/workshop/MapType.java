@@ -0,0 +1,7 @@
+package at.emielregis.dathostdemomanager.workshop;
+
+public enum MapType {
+    HOSTAGE,
+    DEFUSAL,
+    UNKNOWN
+}
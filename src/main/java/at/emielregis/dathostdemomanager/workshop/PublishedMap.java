@@ -0,0 +1,5 @@
+package at.emielregis.dathostdemomanager.workshop;
+
+public record PublishedMap(String name, String id, int subscriptions, int lifetimeSubscriptions,
+                           int lifetimeFavorites, MapType mapType, String previewUrl) {
+}
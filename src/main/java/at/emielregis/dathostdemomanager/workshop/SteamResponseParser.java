@@ -0,0 +1,171 @@
+package at.emielregis.dathostdemomanager.workshop;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.function.Consumer;
+
+/**
+ * Streaming parsers for the Steam remote storage API. The responses are read token by token straight from the
+ * response body, so neither the body string nor a full JSON tree is ever built. Only the fields needed for
+ * {@link PublishedMap} are kept, everything else is skipped, and results are handed to the caller as soon as
+ * each array element has been read.
+ */
+public final class SteamResponseParser {
+
+    private SteamResponseParser() {
+    }
+
+    /**
+     * Reads a {@code GetCollectionDetails} response and passes the publishedfileid of every child of the first
+     * collection to the consumer. Returns the number of ids found.
+     */
+    public static int parseCollectionChildren(Reader body, Consumer<String> idConsumer) throws IOException {
+        int count = 0;
+        try (JsonReader reader = new JsonReader(body)) {
+            reader.beginObject();
+            if (!seekField(reader, "response")) {
+                throw new IOException("Response does not contain a 'response' object");
+            }
+            reader.beginObject();
+            if (!seekField(reader, "collectiondetails")) {
+                throw new IOException("Response does not contain collection details");
+            }
+            reader.beginArray();
+            if (!reader.hasNext()) {
+                throw new IOException("Response does not contain any collection");
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!reader.nextName().equals("children")) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    String id = readPublishedFileId(reader);
+                    if (id != null) {
+                        idConsumer.accept(id);
+                        count++;
+                    }
+                }
+                reader.endArray();
+            }
+            // the remaining collections and fields are irrelevant, closing the reader discards them
+        }
+        return count;
+    }
+
+    /**
+     * Reads a {@code GetPublishedFileDetails} response with any number of items. Every item that carries all fields
+     * of a {@link PublishedMap} is passed to the map consumer, the publishedfileid of every other item is passed
+     * to the unparsed consumer. An item with a field of an unexpected type is reported as unparsed as well, the
+     * items after it are still read.
+     */
+    public static void parsePublishedFileDetails(Reader body, Consumer<PublishedMap> mapConsumer,
+                                                 Consumer<String> unparsedConsumer) throws IOException {
+        try (JsonReader reader = new JsonReader(body)) {
+            reader.beginObject();
+            if (!seekField(reader, "response")) {
+                throw new IOException("Response does not contain a 'response' object");
+            }
+            reader.beginObject();
+            if (!seekField(reader, "publishedfiledetails")) {
+                throw new IOException("Response does not contain published file details");
+            }
+            reader.beginArray();
+            while (reader.hasNext()) {
+                readPublishedFileDetails(reader, mapConsumer, unparsedConsumer);
+            }
+            reader.endArray();
+        }
+    }
+
+    private static void readPublishedFileDetails(JsonReader reader, Consumer<PublishedMap> mapConsumer,
+                                                 Consumer<String> unparsedConsumer) throws IOException {
+        String id = null;
+        String name = null;
+        String previewUrl = null;
+        Integer subscriptions = null;
+        Integer lifetimeSubscriptions = null;
+        Integer lifetimeFavorites = null;
+        MapType mapType = null;
+        boolean malformed = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String field = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+            try {
+                switch (field) {
+                    case "publishedfileid" -> id = reader.nextString();
+                    case "title" -> name = reader.nextString();
+                    case "preview_url" -> previewUrl = reader.nextString();
+                    case "subscriptions" -> subscriptions = reader.nextInt();
+                    case "lifetime_subscriptions" -> lifetimeSubscriptions = reader.nextInt();
+                    case "lifetime_favorited" -> lifetimeFavorites = reader.nextInt();
+                    case "description" -> mapType = determineMapType(reader.nextString());
+                    default -> reader.skipValue();
+                }
+            } catch (IllegalStateException | NumberFormatException e) {
+                // the value is left unread, skipping it keeps the reader in sync for the remaining fields and items
+                reader.skipValue();
+                malformed = true;
+            }
+        }
+        reader.endObject();
+
+        if (id == null) {
+            return;
+        }
+        if (malformed || name == null || previewUrl == null || subscriptions == null || lifetimeSubscriptions == null
+                || lifetimeFavorites == null || mapType == null) {
+            unparsedConsumer.accept(id);
+            return;
+        }
+        mapConsumer.accept(new PublishedMap(name, id, subscriptions, lifetimeSubscriptions, lifetimeFavorites, mapType, previewUrl));
+    }
+
+    private static String readPublishedFileId(JsonReader reader) throws IOException {
+        String id = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("publishedfileid")) {
+                id = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return id;
+    }
+
+    /**
+     * Skips the fields of the current object until the field with the given name. Returns false if the object
+     * ends without containing it.
+     */
+    private static boolean seekField(JsonReader reader, String name) throws IOException {
+        while (reader.hasNext()) {
+            if (reader.nextName().equals(name)) {
+                return true;
+            }
+            reader.skipValue();
+        }
+        return false;
+    }
+
+    static MapType determineMapType(String description) {
+        String lowerCaseDescription = description.toLowerCase();
+        boolean isHostage = lowerCaseDescription.contains("hostage");
+        boolean isDefusal = lowerCaseDescription.contains("defusal");
+        if (isHostage == isDefusal) {
+            return MapType.UNKNOWN;
+        }
+        return isHostage ? MapType.HOSTAGE : MapType.DEFUSAL;
+    }
+}
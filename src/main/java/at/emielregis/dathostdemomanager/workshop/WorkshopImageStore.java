@@ -0,0 +1,231 @@
+package at.emielregis.dathostdemomanager.workshop;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Optional;
+
+/**
+ * Content-addressed storage for workshop preview images. Every distinct image is stored exactly once as
+ * {@code .blobs/<sha256>.png} below the workshop image path. Each collection gets its own directory of readable
+ * file names that are hard links to those blobs (or copies where the file system does not support links), plus a
+ * {@code manifest.json} that maps publishedfileids to their file name and blob hash.
+ * <p>
+ * The ETag and Last-Modified validators of every downloaded image URL are kept in {@code .blobs/validators.json}
+ * together with the hash of its blob, so an unchanged image is revalidated with a conditional request and taken from
+ * the blob store instead of being kept a second time in an HTTP cache.
+ */
+@Component
+public class WorkshopImageStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(WorkshopImageStore.class);
+
+    private static final String BLOB_DIRECTORY = ".blobs";
+    private static final String MANIFEST_FILE = "manifest.json";
+    private static final String VALIDATORS_FILE = "validators.json";
+
+    @Value("${settings.workshop-image-path}")
+    private String workshopImagePath;
+
+    private JsonObject validators;
+
+    /**
+     * Validators of a previously downloaded image and the hash of the blob its body was stored as.
+     */
+    public record ImageValidators(String etag, String lastModified, String hash) {
+    }
+
+    /**
+     * Returns the validators recorded for the image URL, or an empty optional if the URL was never downloaded with
+     * validators or its blob no longer exists.
+     */
+    public synchronized Optional<ImageValidators> validators(String url) throws IOException {
+        JsonObject entry = loadValidators().getAsJsonObject(url);
+        if (entry == null || !Files.exists(blobPath(entry.get("hash").getAsString()))) {
+            return Optional.empty();
+        }
+        return Optional.of(new ImageValidators(getString(entry, "etag"), getString(entry, "lastModified"),
+                entry.get("hash").getAsString()));
+    }
+
+    /**
+     * Remembers the validators of a downloaded image. Responses without any validator cannot be revalidated and are
+     * not recorded.
+     */
+    public synchronized void recordValidators(String url, String etag, String lastModified, String hash) throws IOException {
+        if (etag == null && lastModified == null) {
+            return;
+        }
+        JsonObject entry = new JsonObject();
+        entry.addProperty("etag", etag);
+        entry.addProperty("lastModified", lastModified);
+        entry.addProperty("hash", hash);
+        JsonObject current = loadValidators();
+        if (entry.equals(current.get(url))) {
+            return;
+        }
+        current.add(url, entry);
+        writeJson(Paths.get(workshopImagePath, BLOB_DIRECTORY), VALIDATORS_FILE, current);
+    }
+
+    /**
+     * Streams the image into the blob directory while hashing it and returns the hash. If a blob with the same
+     * content already exists the downloaded copy is discarded, so an image shared by several maps or collections
+     * is only kept once.
+     */
+    public String store(InputStream in) throws IOException {
+        Path blobDirectory = Files.createDirectories(Paths.get(workshopImagePath, BLOB_DIRECTORY));
+        Path tempFile = Files.createTempFile(blobDirectory, "download-", ".tmp");
+        try {
+            MessageDigest digest = newDigest();
+            try (DigestInputStream digestIn = new DigestInputStream(in, digest);
+                 OutputStream out = Files.newOutputStream(tempFile)) {
+                digestIn.transferTo(out);
+            }
+            String hash = HexFormat.of().formatHex(digest.digest());
+            Path blob = blobPath(hash);
+            if (Files.exists(blob)) {
+                logger.info("Image {} is already stored, skipping write.", hash);
+            } else {
+                try {
+                    Files.move(tempFile, blob, StandardCopyOption.ATOMIC_MOVE);
+                    logger.info("Stored new image blob: {}", hash);
+                } catch (FileAlreadyExistsException e) {
+                    logger.info("Image {} was stored concurrently, skipping write.", hash);
+                }
+            }
+            return hash;
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Makes the blob visible in the directory of the given collection. Maps whose sanitized title collides with a
+     * different map of the same collection get their publishedfileid appended instead of overwriting each other.
+     */
+    public synchronized Path addToCollection(String collectionId, String mapId, String displayName, String hash) throws IOException {
+        Path collectionDirectory = Files.createDirectories(Paths.get(workshopImagePath, sanitizeId(collectionId)));
+        JsonObject manifest = readManifest(collectionDirectory);
+
+        String fileName = sanitize(displayName) + ".png";
+        if (isUsedByOtherMap(manifest, fileName, mapId)) {
+            fileName = sanitize(displayName) + " [" + sanitizeId(mapId) + "].png";
+        }
+
+        JsonObject previous = manifest.getAsJsonObject(mapId);
+        Path target = collectionDirectory.resolve(fileName);
+        if (previous != null && previous.get("hash").getAsString().equals(hash)
+                && previous.get("file").getAsString().equals(fileName) && Files.exists(target)) {
+            logger.info("Image for map {} is unchanged in collection {}.", mapId, collectionId);
+            return target;
+        }
+        if (previous != null && !previous.get("file").getAsString().equals(fileName)) {
+            Files.deleteIfExists(collectionDirectory.resolve(previous.get("file").getAsString()));
+        }
+
+        linkBlob(blobPath(hash), target);
+
+        JsonObject entry = new JsonObject();
+        entry.addProperty("file", fileName);
+        entry.addProperty("hash", hash);
+        manifest.add(mapId, entry);
+        writeManifest(collectionDirectory, manifest);
+
+        logger.info("Image saved as: {}", collectionDirectory.getFileName().resolve(fileName));
+        return target;
+    }
+
+    private void linkBlob(Path blob, Path target) throws IOException {
+        Path tempLink = target.resolveSibling(target.getFileName() + ".tmp");
+        Files.deleteIfExists(tempLink);
+        try {
+            Files.createLink(tempLink, blob);
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            logger.debug("Hard links are not available for {}, copying instead.", target, e);
+            Files.copy(blob, tempLink);
+        }
+        Files.move(tempLink, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private boolean isUsedByOtherMap(JsonObject manifest, String fileName, String mapId) {
+        return manifest.entrySet().stream()
+                .anyMatch(entry -> !entry.getKey().equals(mapId)
+                        && entry.getValue().getAsJsonObject().get("file").getAsString().equals(fileName));
+    }
+
+    private JsonObject readManifest(Path collectionDirectory) throws IOException {
+        Path manifestPath = collectionDirectory.resolve(MANIFEST_FILE);
+        if (!Files.exists(manifestPath)) {
+            return new JsonObject();
+        }
+        return JsonParser.parseString(Files.readString(manifestPath, StandardCharsets.UTF_8)).getAsJsonObject();
+    }
+
+    private void writeManifest(Path collectionDirectory, JsonObject manifest) throws IOException {
+        writeJson(collectionDirectory, MANIFEST_FILE, manifest);
+    }
+
+    private JsonObject loadValidators() throws IOException {
+        if (validators == null) {
+            Path validatorsPath = Paths.get(workshopImagePath, BLOB_DIRECTORY, VALIDATORS_FILE);
+            validators = Files.exists(validatorsPath)
+                    ? JsonParser.parseString(Files.readString(validatorsPath, StandardCharsets.UTF_8)).getAsJsonObject()
+                    : new JsonObject();
+        }
+        return validators;
+    }
+
+    private void writeJson(Path directory, String fileName, JsonObject json) throws IOException {
+        Files.createDirectories(directory);
+        Path path = directory.resolve(fileName);
+        Path tempPath = directory.resolve(fileName + ".tmp");
+        Files.writeString(tempPath, new GsonBuilder().setPrettyPrinting().create().toJson(json), StandardCharsets.UTF_8);
+        Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String getString(JsonObject json, String member) {
+        JsonElement element = json.get(member);
+        return element == null || element.isJsonNull() ? null : element.getAsString();
+    }
+
+    private Path blobPath(String hash) {
+        return Paths.get(workshopImagePath, BLOB_DIRECTORY, hash + ".png");
+    }
+
+    private String sanitize(String name) {
+        return name.replaceAll("[\\\\/:*?\"<>|]", "_");
+    }
+
+    private String sanitizeId(String id) {
+        return id.replaceAll("[^0-9A-Za-z_-]", "_");
+    }
+
+    private MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package at.emielregis.dathostdemomanager.workshop;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Persistent cache for parsed workshop map details, keyed by publishedfileid. Every entry is stored as a small
+ * JSON file so that cached details survive restarts. Entries expire after the configured TTL and the oldest
+ * entries are evicted once the cache holds more than the configured number of maps.
+ */
+@Component
+public class WorkshopMetadataCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(WorkshopMetadataCache.class);
+
+    @Value("${settings.workshop-cache.directory}")
+    private String cacheDirectory;
+
+    @Value("${settings.workshop-cache.metadata-ttl-minutes}")
+    private long metadataTtlMinutes;
+
+    @Value("${settings.workshop-cache.max-metadata-entries}")
+    private int maxMetadataEntries;
+
+    // publishedfileid -> time the details were fetched, mirrors the files on disk
+    private final Map<String, Long> fetchTimes = new ConcurrentHashMap<>();
+
+    private Path metadataDirectory;
+
+    @PostConstruct
+    public void init() throws IOException {
+        metadataDirectory = Paths.get(cacheDirectory, "metadata");
+        Files.createDirectories(metadataDirectory);
+        try (Stream<Path> paths = Files.list(metadataDirectory)) {
+            paths.filter(path -> path.getFileName().toString().endsWith(".json"))
+                    .forEach(path -> readEntry(path).ifPresent(entry -> fetchTimes.put(entry.map().id(), entry.fetchedAt())));
+        }
+        logger.info("Loaded {} cached workshop map entries from {}", fetchTimes.size(), metadataDirectory);
+    }
+
+    public Optional<PublishedMap> get(String id) {
+        Long fetchedAt = fetchTimes.get(id);
+        if (fetchedAt == null) {
+            return Optional.empty();
+        }
+        if (isExpired(fetchedAt)) {
+            logger.info("Cached details for map id {} expired.", id);
+            return Optional.empty();
+        }
+        return readEntry(entryPath(id)).map(CacheEntry::map);
+    }
+
+    public void put(PublishedMap map) {
+        long now = System.currentTimeMillis();
+        JsonObject json = new JsonObject();
+        json.addProperty("fetchedAt", now);
+        json.add("map", toJson(map));
+
+        Path target = entryPath(map.id());
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            Files.writeString(temp, json.toString(), StandardCharsets.UTF_8);
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            fetchTimes.put(map.id(), now);
+        } catch (IOException e) {
+            logger.warn("Failed to cache details for map id: {}", map.id(), e);
+        }
+    }
+
+    /**
+     * Removes expired entries and, if the cache is still above its size limit, the entries fetched the longest ago.
+     */
+    public void evict() {
+        List<String> expired = fetchTimes.entrySet().stream()
+                .filter(entry -> isExpired(entry.getValue()))
+                .map(Map.Entry::getKey)
+                .toList();
+        expired.forEach(this::remove);
+
+        int overflow = fetchTimes.size() - maxMetadataEntries;
+        if (overflow > 0) {
+            fetchTimes.entrySet().stream()
+                    .sorted(Map.Entry.comparingByValue())
+                    .limit(overflow)
+                    .map(Map.Entry::getKey)
+                    .toList()
+                    .forEach(this::remove);
+        }
+        if (!expired.isEmpty() || overflow > 0) {
+            logger.info("Evicted {} expired and {} overflowing workshop map entries.", expired.size(), Math.max(overflow, 0));
+        }
+    }
+
+    private void remove(String id) {
+        fetchTimes.remove(id);
+        try {
+            Files.deleteIfExists(entryPath(id));
+        } catch (IOException e) {
+            logger.warn("Failed to delete cached details for map id: {}", id, e);
+        }
+    }
+
+    private boolean isExpired(long fetchedAt) {
+        return System.currentTimeMillis() - fetchedAt > Duration.ofMinutes(metadataTtlMinutes).toMillis();
+    }
+
+    private Path entryPath(String id) {
+        // ids come from the steam api, but never trust them as part of a path
+        return metadataDirectory.resolve(id.replaceAll("[^0-9A-Za-z]", "_") + ".json");
+    }
+
+    private Optional<CacheEntry> readEntry(Path path) {
+        try {
+            JsonObject json = JsonParser.parseString(Files.readString(path, StandardCharsets.UTF_8)).getAsJsonObject();
+            return Optional.of(new CacheEntry(json.get("fetchedAt").getAsLong(), fromJson(json.getAsJsonObject("map"))));
+        } catch (Exception e) {
+            logger.warn("Ignoring unreadable cache entry: {}", path.getFileName(), e);
+            return Optional.empty();
+        }
+    }
+
+    private JsonObject toJson(PublishedMap map) {
+        JsonObject json = new JsonObject();
+        json.addProperty("name", map.name());
+        json.addProperty("id", map.id());
+        json.addProperty("subscriptions", map.subscriptions());
+        json.addProperty("lifetimeSubscriptions", map.lifetimeSubscriptions());
+        json.addProperty("lifetimeFavorites", map.lifetimeFavorites());
+        json.addProperty("mapType", map.mapType().name());
+        json.addProperty("previewUrl", map.previewUrl());
+        return json;
+    }
+
+    private PublishedMap fromJson(JsonObject json) {
+        return new PublishedMap(
+                json.get("name").getAsString(),
+                json.get("id").getAsString(),
+                json.get("subscriptions").getAsInt(),
+                json.get("lifetimeSubscriptions").getAsInt(),
+                json.get("lifetimeFavorites").getAsInt(),
+                MapType.valueOf(json.get("mapType").getAsString()),
+                json.get("previewUrl").getAsString());
+    }
+
+    private record CacheEntry(long fetchedAt, PublishedMap map) {
+    }
+}